@@ -0,0 +1,108 @@
+package org.salesforce.demo.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.util.Utf8;
+import org.salesforce.demo.events.ReplayId;
+import org.salesforce.demo.fake.FakeEventGenerator;
+import org.salesforce.demo.fake.FakePubSubServer;
+
+import com.google.protobuf.ByteString;
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+
+/**
+ * Account Change Data Capture events built with the fixture schema and event generator of the client tests: a change
+ * event header followed by about forty optional fields, among which the Name, BillingAddress and ShippingAddress
+ * compound fields.
+ */
+final class CdcFixtures {
+	static final String SCHEMA_ID = "account-change-event";
+
+	private CdcFixtures() {
+	}
+
+	static Schema accountChangeEventSchema() throws IOException {
+		return FakePubSubServer.loadFixtureSchema("AccountChangeEvent");
+	}
+
+	/**
+	 * @param schema
+	 * @param replayId
+	 * @return update event with every field set, encoded against the schema
+	 */
+	static ConsumerEvent encodeEvent(Schema schema, long replayId) throws IOException {
+		GenericRecord record = new FakeEventGenerator(schema).generateRecord(replayId);
+		// Changes to compound fields are what makes header expansion expensive
+		List<String> changedFields = new ArrayList<>();
+		for (Utf8 value : changedFields(schema)) {
+			changedFields.add(value.toString());
+		}
+		((GenericRecord) record.get("ChangeEventHeader")).put("changedFields", changedFields);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+		new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+		encoder.flush();
+		ProducerEvent event = ProducerEvent.newBuilder().setSchemaId(SCHEMA_ID)
+				.setPayload(ByteString.copyFrom(out.toByteArray())).build();
+		return ConsumerEvent.newBuilder().setEvent(event).setReplayId(ReplayId.fromLong(replayId)).build();
+	}
+
+	/**
+	 * Changes to a few top level fields, to two fields of the Name compound and to two fields of the BillingAddress
+	 * compound, in their bitmap-compressed form
+	 *
+	 * @param schema
+	 * @return changedFields values as decoded from the header
+	 */
+	static List<Utf8> changedFields(Schema schema) {
+		int namePos = schema.getField("Name").pos();
+		int billingPos = schema.getField("BillingAddress").pos();
+		List<Utf8> values = new ArrayList<>();
+		values.add(new Utf8(bitmap(namePos, billingPos, schema.getField("Phone").pos(),
+				schema.getField("LastModifiedDate").pos(), schema.getField("NumberOfEmployees").pos())));
+		values.add(new Utf8(namePos + "-" + bitmap(1, 2)));
+		values.add(new Utf8(billingPos + "-" + bitmap(0, 1)));
+		return values;
+	}
+
+	/**
+	 * @param schema
+	 * @return nulledFields values where all ShippingAddress fields were nulled at once
+	 */
+	static List<Utf8> nulledFields(Schema schema) {
+		int shippingPos = schema.getField("ShippingAddress").pos();
+		return Arrays.asList(new Utf8(bitmap(shippingPos)),
+				new Utf8(shippingPos + "-" + bitmap(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)));
+	}
+
+	/**
+	 * @param positions field positions
+	 * @return hex bitmap with the bits of the positions set, position 0 being the lowest bit
+	 */
+	private static String bitmap(int... positions) {
+		int max = 0;
+		for (int position : positions) {
+			max = Math.max(max, position);
+		}
+		char[] digits = new char[max / 4 + 1];
+		int[] values = new int[digits.length];
+		for (int position : positions) {
+			values[values.length - 1 - position / 4] |= 1 << (position % 4);
+		}
+		for (int i = 0; i < digits.length; i++) {
+			digits[i] = Character.forDigit(values[i], 16);
+		}
+		return "0x" + new String(digits).toUpperCase();
+	}
+}
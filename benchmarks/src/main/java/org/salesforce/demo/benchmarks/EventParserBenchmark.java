@@ -0,0 +1,108 @@
+package org.salesforce.demo.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.salesforce.demo.events.Event;
+import org.salesforce.demo.events.EventFilter;
+import org.salesforce.demo.events.EventParser;
+import org.salesforce.demo.events.EventParser.EventParseException;
+import org.salesforce.demo.events.FieldProjection;
+import org.salesforce.demo.events.OrderingKey;
+import org.salesforce.demo.events.SchemaCache;
+
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+
+/**
+ * Decoding of change events, from the raw consumer event to the fields a handler reads
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventParserBenchmark {
+	@Param({ "false", "true" })
+	private boolean reuseRecords;
+
+	private EventParser parser;
+	private EventParser projectedParser;
+	private EventFilter matchingFilter;
+	private EventFilter rejectingFilter;
+	private ConsumerEvent event;
+
+	@Setup
+	public void setUp() throws Exception {
+		Schema schema = CdcFixtures.accountChangeEventSchema();
+		SchemaCache schemaCache = new SchemaCache(schemaId -> schema, 10, 60);
+		parser = new EventParser(schemaCache, reuseRecords);
+		projectedParser = parser.withProjection(FieldProjection.of("Phone", "BillingAddress"));
+		matchingFilter = EventFilter.all().withEntityNames("Account").withChangedFields("BillingAddress");
+		rejectingFilter = EventFilter.all().withEntityNames("Contact");
+		event = CdcFixtures.encodeEvent(schema, 42);
+	}
+
+	/**
+	 * Full decode without reading the header
+	 */
+	@Benchmark
+	public Event parse() throws EventParseException {
+		return parser.parse(event);
+	}
+
+	/**
+	 * Full decode followed by the header reads of a typical handler
+	 */
+	@Benchmark
+	public List<String> parseAndReadHeader() throws EventParseException {
+		Event parsed = parser.parse(event);
+		parsed.getHeader().getChangeType();
+		parsed.getHeader().getRecordIds();
+		return parsed.getHeader().getChangedFields();
+	}
+
+	/**
+	 * Decode of the header and two fields
+	 */
+	@Benchmark
+	public Event parseProjected() throws EventParseException {
+		return projectedParser.parse(event);
+	}
+
+	/**
+	 * Header-only decode of an event that passes the filter
+	 */
+	@Benchmark
+	public boolean matchFilter() throws EventParseException {
+		return parser.matches(event, matchingFilter);
+	}
+
+	/**
+	 * Header-only decode of an event that is skipped
+	 */
+	@Benchmark
+	public boolean rejectFilter() throws EventParseException {
+		return parser.matches(event, rejectingFilter);
+	}
+
+	/**
+	 * Ordering key read on the gRPC thread to pick a pipeline lane
+	 */
+	@Benchmark
+	public String parseOrderingKey() throws EventParseException {
+		return parser.parseOrderingKey(event, OrderingKey.RECORD_ID);
+	}
+}
@@ -0,0 +1,67 @@
+package org.salesforce.demo.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.util.Utf8;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.salesforce.demo.events.FieldBitmapIndex;
+
+/**
+ * Expansion of the bitmap-compressed field lists of the change event header
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FieldBitmapIndexBenchmark {
+	private Schema schema;
+	private FieldBitmapIndex index;
+	private List<Utf8> changedFields;
+	private List<Utf8> nulledFields;
+
+	@Setup
+	public void setUp() throws IOException {
+		schema = CdcFixtures.accountChangeEventSchema();
+		index = new FieldBitmapIndex(schema);
+		changedFields = CdcFixtures.changedFields(schema);
+		nulledFields = CdcFixtures.nulledFields(schema);
+	}
+
+	/**
+	 * Top level fields and fields of two compounds
+	 */
+	@Benchmark
+	public List<String> expandChangedFields() {
+		return index.expand(changedFields);
+	}
+
+	/**
+	 * Compound whose fields were all nulled, collapsed into the compound name
+	 */
+	@Benchmark
+	public List<String> expandNulledCompound() {
+		return index.expand(nulledFields);
+	}
+
+	/**
+	 * Compilation of the lookup tables, done once per schema
+	 */
+	@Benchmark
+	public FieldBitmapIndex buildIndex() {
+		return new FieldBitmapIndex(schema);
+	}
+}
@@ -0,0 +1,47 @@
+package org.salesforce.demo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.salesforce.demo.events.ReplayId;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Conversions between replay IDs and their numeric value, done for every received event
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplayIdBenchmark {
+	private ByteString replayId;
+	private long replayIdValue;
+
+	@Setup
+	public void setUp() {
+		replayIdValue = 48_213_557L;
+		replayId = ReplayId.fromLong(replayIdValue);
+	}
+
+	@Benchmark
+	public long toLong() {
+		return ReplayId.toLong(replayId);
+	}
+
+	@Benchmark
+	public ByteString fromLong() {
+		return ReplayId.fromLong(replayIdValue);
+	}
+}
@@ -0,0 +1,20 @@
+package org.salesforce.demo;
+
+import org.salesforce.demo.events.Event;
+
+/**
+ * Processes the events of a subscription. Handlers are called from the worker threads of the event pipeline and
+ * must therefore be thread-safe.
+ * When {@code pubSub.parser.reuseRecords} is enabled, events must not be used once the handler returns, see
+ * {@link Event}.
+ */
+@FunctionalInterface
+public interface EventHandler {
+
+	/**
+	 * @param topicName topic the event was received on
+	 * @param event     decoded event
+	 * @throws Exception stops the subscription
+	 */
+	void handle(String topicName, Event event) throws Exception;
+}
@@ -0,0 +1,256 @@
+package org.salesforce.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.salesforce.demo.events.OrderingKey;
+import org.salesforce.demo.metrics.MetricsRegistry;
+
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+
+/**
+ * Hands raw events off from the gRPC callback threads to a pool of worker threads that decode and handle them.
+ * The buffer is bounded and its capacity is reserved by the flow controllers before they request events from the
+ * server: every delivered event already owns a slot, so handing it off never blocks the transport. When the buffer
+ * is full, flow controllers stop sending FetchRequests and are resumed as soon as workers free some capacity.
+ * <p>
+ * Each worker is a single-threaded lane with its own queue. Events are assigned to a lane by hashing their ordering
+ * key, so events that share a key are processed one at a time in the order they were received while unrelated
+ * events are processed in parallel. Events without a key are spread over the lanes. Without an ordering key, all
+ * workers take events from a single shared queue.
+ */
+public class EventPipeline {
+	private static final Logger logger = Logger.getLogger(EventPipeline.class.getName());
+
+	private final OrderingKey orderingKey;
+	private final BlockingQueue<Task>[] lanes;
+	private final AtomicInteger nextLane = new AtomicInteger();
+	private final AtomicInteger available;
+	private final Queue<FlowController> starved = new ConcurrentLinkedQueue<>();
+	private final List<Thread> workers = new ArrayList<>();
+	private volatile boolean running = true;
+
+	/**
+	 * @param workerCount number of worker threads
+	 * @param capacity    maximum number of buffered and in-process events
+	 */
+	public EventPipeline(int workerCount, int capacity) {
+		this(workerCount, capacity, OrderingKey.NONE);
+	}
+
+	/**
+	 * @param workerCount number of worker threads, one per lane
+	 * @param capacity    maximum number of buffered and in-process events
+	 * @param orderingKey key that determines which events must be processed in order
+	 */
+	public EventPipeline(int workerCount, int capacity, OrderingKey orderingKey) {
+		this(workerCount, capacity, orderingKey, new WorkerThreadFactory());
+	}
+
+	/**
+	 * @param workerCount   number of worker threads, one per lane
+	 * @param capacity      maximum number of buffered and in-process events
+	 * @param orderingKey   key that determines which events must be processed in order
+	 * @param threadFactory creates the worker threads, for instance virtual threads
+	 */
+	@SuppressWarnings("unchecked")
+	public EventPipeline(int workerCount, int capacity, OrderingKey orderingKey, ThreadFactory threadFactory) {
+		this.orderingKey = orderingKey;
+		this.available = new AtomicInteger(Math.max(1, capacity));
+		this.lanes = new BlockingQueue[Math.max(1, workerCount)];
+		// Reservations bound the number of events across all lanes, so any lane may have to hold all of them. Lane
+		// queues are linked rather than array-backed so that many lanes don't preallocate that capacity each.
+		BlockingQueue<Task> sharedQueue = orderingKey == OrderingKey.NONE
+				? new ArrayBlockingQueue<>(Math.max(1, capacity))
+				: null;
+		for (int i = 0; i < lanes.length; i++) {
+			BlockingQueue<Task> lane = sharedQueue != null ? sharedQueue
+					: new LinkedBlockingQueue<>(Math.max(1, capacity));
+			lanes[i] = lane;
+			Thread worker = threadFactory.newThread(() -> work(lane));
+			workers.add(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * @return key that determines which events must be processed in order
+	 */
+	public OrderingKey getOrderingKey() {
+		return orderingKey;
+	}
+
+	/**
+	 * @return number of events that can be processed at the same time
+	 */
+	public int getParallelism() {
+		return workers.size();
+	}
+
+	/**
+	 * Exposes the buffer usage as gauges
+	 *
+	 * @param metrics
+	 */
+	public void registerMetrics(MetricsRegistry metrics) {
+		metrics.gauge("pipeline.available", available::get);
+		metrics.gauge("pipeline.queued", this::getQueuedCount);
+		metrics.gauge("pipeline.starved", () -> starved.size());
+	}
+
+	private long getQueuedCount() {
+		if (orderingKey == OrderingKey.NONE) {
+			// All workers share the first lane
+			return lanes[0].size();
+		}
+		long queued = 0;
+		for (BlockingQueue<Task> lane : lanes) {
+			queued += lane.size();
+		}
+		return queued;
+	}
+
+	/**
+	 * Reserves buffer capacity for events that are about to be requested. If no capacity is available, the flow
+	 * controller is notified once some capacity is released.
+	 *
+	 * @param flowController
+	 * @param max            number of events to request
+	 * @return number of reserved slots, up to max
+	 */
+	int reserve(FlowController flowController, int max) {
+		int reserved = tryReserve(max);
+		if (reserved == 0) {
+			starved.add(flowController);
+			// Capacity may have been released before we were registered
+			reserved = tryReserve(max);
+			if (reserved > 0) {
+				starved.remove(flowController);
+			}
+		}
+		return reserved;
+	}
+
+	/**
+	 * Returns capacity that was reserved for events that will never be delivered
+	 *
+	 * @param count
+	 */
+	void release(int count) {
+		if (count <= 0) {
+			return;
+		}
+		available.addAndGet(count);
+		FlowController flowController;
+		while (available.get() > 0 && (flowController = starved.poll()) != null) {
+			flowController.onCapacityAvailable();
+		}
+	}
+
+	/**
+	 * Hands an event off to the workers. Capacity must have been reserved beforehand.
+	 *
+	 * @param observer stream the event was received on
+	 * @param event
+	 * @param slot     replay tracking slot of the event
+	 * @param key      ordering key of the event or null if it can be processed in any order
+	 */
+	void submit(PubSubEventObserver observer, ConsumerEvent event, ReplayTracker.Slot slot, String key) {
+		BlockingQueue<Task> lane = lanes[selectLane(key)];
+		Task task = new Task(observer, event, slot);
+		if (!lane.offer(task)) {
+			// Only happens if the server sends more events than requested
+			logger.warning("Event pipeline full, blocking until a slot is freed");
+			try {
+				lane.put(task);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stops the workers, buffered events are dropped
+	 */
+	public void close() {
+		running = false;
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	private int selectLane(String key) {
+		if (key == null) {
+			return Math.floorMod(nextLane.getAndIncrement(), lanes.length);
+		}
+		// Spread the high bits since only the low bits select the lane
+		int hash = key.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+	}
+
+	private int tryReserve(int max) {
+		while (true) {
+			int current = available.get();
+			int reserved = Math.min(current, max);
+			if (reserved <= 0) {
+				return 0;
+			}
+			if (available.compareAndSet(current, current - reserved)) {
+				return reserved;
+			}
+		}
+	}
+
+	private void work(BlockingQueue<Task> lane) {
+		while (running) {
+			Task task;
+			try {
+				task = lane.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				task.observer.process(task.event, task.slot);
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "Unexpected error while processing event: " + e.getMessage(), e);
+			} finally {
+				release(1);
+			}
+		}
+	}
+
+	/**
+	 * Creates daemon platform threads
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger nextIndex = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "pubsub-worker-" + nextIndex.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private static class Task {
+		private final PubSubEventObserver observer;
+		private final ConsumerEvent event;
+		private final ReplayTracker.Slot slot;
+
+		private Task(PubSubEventObserver observer, ConsumerEvent event, ReplayTracker.Slot slot) {
+			this.observer = observer;
+			this.event = event;
+			this.slot = slot;
+		}
+	}
+}
@@ -0,0 +1,454 @@
+package org.salesforce.demo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.avro.generic.GenericRecord;
+import org.salesforce.demo.events.EventSerializer;
+import org.salesforce.demo.events.EventSerializer.EventSerializeException;
+import org.salesforce.demo.events.EventSerializer.PooledEvent;
+import org.salesforce.demo.metrics.Counter;
+import org.salesforce.demo.metrics.Histogram;
+import org.salesforce.demo.metrics.MetricsRegistry;
+
+import com.google.protobuf.ByteString;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+import com.salesforce.eventbus.protobuf.PubSubGrpc;
+import com.salesforce.eventbus.protobuf.PublishRequest;
+import com.salesforce.eventbus.protobuf.PublishResponse;
+import com.salesforce.eventbus.protobuf.PublishResult;
+
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+/**
+ * Publishes events to a topic over a single PublishStream.
+ * Events are grouped into batches that are sent once they reach a maximum number of events or bytes, or once the
+ * oldest event of the batch waited for the linger time. Several batches are pipelined on the stream without waiting
+ * for their response, up to a maximum number of in-flight batches: publishers block when that many batches are
+ * waiting to be sent. The server answers batches in the order they were sent with one result per event, in the
+ * order of the batch, so each result completes the future of the matching event.
+ * <p>
+ * When the stream closes, batches that were sent but not answered fail with a
+ * {@link PublishOutcomeUnknownException}: the server may have published their events. Batches that were not sent yet
+ * go out on a new stream, which is opened after a backoff when the stream failed with a transient status. They fail
+ * with the stream error when it isn't transient or when the reconnect attempts run out.
+ * <p>
+ * Publish futures are completed on the gRPC threads: use the async variants of the CompletableFuture methods if a
+ * callback publishes more events or blocks.
+ */
+public class EventPublisher {
+	private static final Logger logger = Logger.getLogger(EventPublisher.class.getName());
+
+	private final PubSubGrpc.PubSubStub stub;
+	private final String topicName;
+	private final String schemaId;
+	private final EventSerializer serializer;
+	private final Settings settings;
+	private final SubscriptionSupervisor.ReconnectSettings reconnectSettings;
+	private final ScheduledExecutorService scheduler;
+	private final Counter publishedEvents;
+	private final Counter failedEvents;
+	private final Histogram batchEvents;
+	private final Histogram roundTripMillis;
+
+	private Batch currentBatch = new Batch();
+	private ScheduledFuture<?> lingerTimer;
+	private final Deque<Batch> ready = new ArrayDeque<>();
+	private final Deque<Batch> inFlight = new ArrayDeque<>();
+	private PublishStreamObserver stream;
+	private ScheduledFuture<?> pendingReconnect;
+	private int attempt = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param stub
+	 * @param topicName
+	 * @param schemaId   ID of the schema the published records conform to
+	 * @param serializer
+	 * @param settings
+	 * @param reconnectSettings backoff before reopening a failed stream
+	 * @param scheduler         triggers the sending of batches that reached the linger time and reconnects
+	 * @param metrics           registry of the publish metrics, tagged with the topic name
+	 */
+	public EventPublisher(PubSubGrpc.PubSubStub stub, String topicName, String schemaId, EventSerializer serializer,
+			Settings settings, SubscriptionSupervisor.ReconnectSettings reconnectSettings,
+			ScheduledExecutorService scheduler, MetricsRegistry metrics) {
+		this.stub = stub;
+		this.topicName = topicName;
+		this.schemaId = schemaId;
+		this.serializer = serializer;
+		this.settings = settings;
+		this.reconnectSettings = reconnectSettings;
+		this.scheduler = scheduler;
+		this.publishedEvents = metrics.counter("publish.events.published", "topic", topicName);
+		this.failedEvents = metrics.counter("publish.events.failed", "topic", topicName);
+		this.batchEvents = metrics.histogram("publish.batchSize", "topic", topicName);
+		this.roundTripMillis = metrics.histogram("publish.roundTripMillis", "topic", topicName);
+	}
+
+	public String getTopicName() {
+		return topicName;
+	}
+
+	/**
+	 * Publishes a record with the schema of the topic
+	 *
+	 * @param record
+	 * @return future completed with the replay ID of the event once it is published
+	 * @throws EventSerializeException
+	 * @throws InterruptedException    if interrupted while waiting for room in the send buffer
+	 */
+	public CompletableFuture<ByteString> publish(GenericRecord record)
+			throws EventSerializeException, InterruptedException {
+		// The payload is encoded in a pooled buffer that is recycled once its batch is answered
+		PooledEvent pooledEvent = serializer.serializePooled(schemaId, record);
+		try {
+			return enqueue(pooledEvent.getEvent(), pooledEvent);
+		} catch (InterruptedException | RuntimeException e) {
+			pooledEvent.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Publishes a serialized event, blocks while the maximum number of batches are waiting to be sent
+	 *
+	 * @param event
+	 * @return future completed with the replay ID of the event once it is published
+	 * @throws InterruptedException if interrupted while waiting for room in the send buffer
+	 */
+	public CompletableFuture<ByteString> publish(ProducerEvent event) throws InterruptedException {
+		return enqueue(event, null);
+	}
+
+	private synchronized CompletableFuture<ByteString> enqueue(ProducerEvent event, PooledEvent pooledEvent)
+			throws InterruptedException {
+		while (!closed && ready.size() >= settings.maxInFlightBatches) {
+			wait();
+		}
+		if (closed) {
+			throw new IllegalStateException("Publisher to " + topicName + " is closed");
+		}
+		int eventSize = event.getSerializedSize();
+		if (!currentBatch.isEmpty() && currentBatch.size + eventSize > settings.maxBatchBytes) {
+			seal();
+		}
+		CompletableFuture<ByteString> future = new CompletableFuture<>();
+		currentBatch.add(event, eventSize, future, pooledEvent);
+		if (currentBatch.events.size() >= settings.maxBatchEvents || currentBatch.size >= settings.maxBatchBytes) {
+			seal();
+		} else if (currentBatch.events.size() == 1) {
+			lingerTimer = scheduler.schedule(this::flush, settings.lingerMillis, TimeUnit.MILLISECONDS);
+		}
+		drain();
+		return future;
+	}
+
+	/**
+	 * Sends the current batch without waiting for the linger time
+	 */
+	public synchronized void flush() {
+		seal();
+		drain();
+	}
+
+	/**
+	 * Sends the pending events, waits for their results and closes the stream. Events that were not sent when the
+	 * timeout elapses fail with a {@link PublishException}, events that were sent but not answered with a
+	 * {@link PublishOutcomeUnknownException}.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return false if some events were still in flight when the timeout elapsed
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+		flush();
+		closed = true;
+		notifyAll();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!ready.isEmpty() || !inFlight.isEmpty()) {
+			long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remainingMillis <= 0) {
+				break;
+			}
+			wait(remainingMillis);
+		}
+		boolean completed = ready.isEmpty() && inFlight.isEmpty();
+		if (pendingReconnect != null) {
+			pendingReconnect.cancel(false);
+			pendingReconnect = null;
+		}
+		if (stream != null) {
+			stream.requestStream.onCompleted();
+			stream = null;
+		}
+		if (!completed) {
+			failAll(new ArrayList<>(ready),
+					new PublishException("Publisher to " + topicName + " closed before the event was sent", null));
+			failAll(new ArrayList<>(inFlight), new PublishOutcomeUnknownException(
+					"Publisher to " + topicName + " closed before the batch of the event was answered", null));
+			ready.clear();
+			inFlight.clear();
+		}
+		return completed;
+	}
+
+	/**
+	 * Moves the current batch to the queue of batches waiting to be sent
+	 */
+	private void seal() {
+		if (lingerTimer != null) {
+			lingerTimer.cancel(false);
+			lingerTimer = null;
+		}
+		if (!currentBatch.isEmpty()) {
+			ready.add(currentBatch);
+			currentBatch = new Batch();
+		}
+	}
+
+	/**
+	 * Sends ready batches while the number of in-flight batches and the transport allow it
+	 */
+	private synchronized void drain() {
+		while (!ready.isEmpty() && inFlight.size() < settings.maxInFlightBatches) {
+			if (stream == null) {
+				if (pendingReconnect != null) {
+					// Resumed once the backoff elapsed
+					break;
+				}
+				stream = new PublishStreamObserver();
+				stub.publishStream(stream);
+			}
+			if (!stream.requestStream.isReady()) {
+				// Resumed by the onReady handler
+				break;
+			}
+			Batch batch = ready.poll();
+			batch.sentNanos = System.nanoTime();
+			batchEvents.record(batch.events.size());
+			inFlight.add(batch);
+			stream.requestStream.onNext(batch.toRequest(topicName));
+		}
+		notifyAll();
+	}
+
+	private void onResponse(PublishStreamObserver observer, PublishResponse response) {
+		Batch batch;
+		synchronized (this) {
+			if (observer != stream) {
+				return;
+			}
+			batch = inFlight.poll();
+			// The stream is healthy again
+			attempt = 0;
+			drain();
+		}
+		if (batch == null) {
+			logger.warning("Received a publish response for " + topicName + " with no batch in flight");
+			return;
+		}
+		roundTripMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.sentNanos));
+		int failedCount = batch.complete(response);
+		publishedEvents.add(batch.futures.size() - failedCount);
+		failedEvents.add(failedCount);
+	}
+
+	private void onStreamClosed(PublishStreamObserver observer, Throwable t) {
+		List<Batch> unanswered;
+		List<Batch> unsent = new ArrayList<>();
+		synchronized (this) {
+			if (observer != stream) {
+				return;
+			}
+			stream = null;
+			unanswered = new ArrayList<>(inFlight);
+			inFlight.clear();
+			if (t == null) {
+				// The server closed an idle stream, a new one is opened for the remaining batches
+				drain();
+			} else if (SubscriptionSupervisor.isRetryable(Status.fromThrowable(t))
+					&& !reconnectSettings.isExhausted(attempt)) {
+				scheduleReconnect();
+			} else {
+				// Don't reopen a failing stream in a loop, events that were not sent fail as well
+				unsent.addAll(ready);
+				ready.clear();
+				attempt = 0;
+			}
+			notifyAll();
+		}
+		if (t != null) {
+			logger.warning("Publish stream on " + topicName + " failed: " + t.getMessage());
+		}
+		Exception cause = t instanceof Exception ? (Exception) t : null;
+		failAll(unanswered, new PublishOutcomeUnknownException("Publish stream on " + topicName
+				+ " closed before the batch of the event was answered, it may have been published", cause));
+		failAll(unsent, t);
+	}
+
+	private void scheduleReconnect() {
+		long delay = reconnectSettings.nextBackoffMillis(attempt);
+		attempt++;
+		logger.info("Reopening publish stream on " + topicName + " in " + delay + " ms (attempt " + attempt + ")...");
+		pendingReconnect = scheduler.schedule(() -> {
+			synchronized (EventPublisher.this) {
+				pendingReconnect = null;
+				drain();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void failAll(List<Batch> batches, Throwable cause) {
+		for (Batch batch : batches) {
+			failedEvents.add(batch.futures.size());
+			batch.fail(cause);
+		}
+	}
+
+	/**
+	 * Events waiting to be sent together and their futures
+	 */
+	private static class Batch {
+		private final List<ProducerEvent> events = new ArrayList<>();
+		private final List<CompletableFuture<ByteString>> futures = new ArrayList<>();
+		private final List<PooledEvent> pooledEvents = new ArrayList<>();
+		private int size = 0;
+		private long sentNanos;
+
+		private boolean isEmpty() {
+			return events.isEmpty();
+		}
+
+		private void add(ProducerEvent event, int eventSize, CompletableFuture<ByteString> future,
+				PooledEvent pooledEvent) {
+			events.add(event);
+			futures.add(future);
+			if (pooledEvent != null) {
+				pooledEvents.add(pooledEvent);
+			}
+			size += eventSize;
+		}
+
+		private PublishRequest toRequest(String topicName) {
+			return PublishRequest.newBuilder().setTopicName(topicName).addAllEvents(events).build();
+		}
+
+		/**
+		 * @return number of events that failed to publish
+		 */
+		private int complete(PublishResponse response) {
+			// gRPC is done with the request once it is answered
+			releaseBuffers();
+			if (response.getResultsCount() != futures.size()) {
+				fail(new PublishException("Expected " + futures.size() + " publish results, received "
+						+ response.getResultsCount() + " (RPC ID " + response.getRpcId() + ")", null));
+				return futures.size();
+			}
+			int failedCount = 0;
+			for (int i = 0; i < futures.size(); i++) {
+				PublishResult result = response.getResults(i);
+				if (result.hasError()) {
+					failedCount++;
+					futures.get(i).completeExceptionally(new PublishException("Failed to publish event: "
+							+ result.getError().getCode() + " " + result.getError().getMsg(), null));
+				} else {
+					futures.get(i).complete(result.getReplayId());
+				}
+			}
+			return failedCount;
+		}
+
+		private void fail(Throwable cause) {
+			releaseBuffers();
+			for (CompletableFuture<ByteString> future : futures) {
+				future.completeExceptionally(cause);
+			}
+		}
+
+		private void releaseBuffers() {
+			for (PooledEvent pooledEvent : pooledEvents) {
+				pooledEvent.release();
+			}
+			pooledEvents.clear();
+		}
+	}
+
+	private class PublishStreamObserver implements ClientResponseObserver<PublishRequest, PublishResponse> {
+		private ClientCallStreamObserver<PublishRequest> requestStream;
+
+		@Override
+		public void beforeStart(ClientCallStreamObserver<PublishRequest> requestStream) {
+			this.requestStream = requestStream;
+			requestStream.setOnReadyHandler(EventPublisher.this::drain);
+		}
+
+		@Override
+		public void onNext(PublishResponse response) {
+			onResponse(this, response);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			onStreamClosed(this, t);
+		}
+
+		@Override
+		public void onCompleted() {
+			onStreamClosed(this, null);
+		}
+	}
+
+	/**
+	 * Publisher settings
+	 */
+	public static class Settings {
+		private final int maxBatchEvents;
+		private final int maxBatchBytes;
+		private final long lingerMillis;
+		private final int maxInFlightBatches;
+
+		/**
+		 * @param maxBatchEvents     maximum number of events in a batch
+		 * @param maxBatchBytes      batch size in bytes after which the batch is sent
+		 * @param lingerMillis       maximum time an event waits for its batch to fill up
+		 * @param maxInFlightBatches maximum number of batches sent and awaiting a response
+		 */
+		public Settings(int maxBatchEvents, int maxBatchBytes, long lingerMillis, int maxInFlightBatches) {
+			this.maxBatchEvents = Math.max(1, maxBatchEvents);
+			this.maxBatchBytes = Math.max(1, maxBatchBytes);
+			this.lingerMillis = Math.max(0, lingerMillis);
+			this.maxInFlightBatches = Math.max(1, maxInFlightBatches);
+		}
+	}
+
+	public static class PublishException extends Exception {
+		private static final long serialVersionUID = -2385709463829470811L;
+
+		public PublishException(String message, Exception causedBy) {
+			super(message, causedBy);
+		}
+	};
+
+	/**
+	 * The stream closed after the batch of the event was sent but before the server answered it: the event may or
+	 * may not have been published, publishing it again may create a duplicate
+	 */
+	public static class PublishOutcomeUnknownException extends PublishException {
+		private static final long serialVersionUID = 6013866521047465163L;
+
+		public PublishOutcomeUnknownException(String message, Exception causedBy) {
+			super(message, causedBy);
+		}
+	};
+}
@@ -0,0 +1,176 @@
+package org.salesforce.demo;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.salesforce.demo.events.ChangeEventHeader;
+import org.salesforce.demo.events.Event;
+import org.salesforce.demo.events.ReplayId;
+
+import com.salesforce.eventbus.protobuf.FetchResponse;
+
+/**
+ * Diagnostic traces of the received responses and processed events, logged at FINE level.
+ * Tracing costs a level check per event when the logger is above FINE. Otherwise, one event or response out of N is
+ * traced: the few values of the trace are captured right away, since records may be reused once the handler returns,
+ * and the message is only formatted when it's written. Traces can be written by a background thread through a bounded
+ * queue, in which case they are dropped rather than slowing down the workers when the queue is full.
+ */
+public class EventTracer {
+	private static final Logger logger = Logger.getLogger(EventTracer.class.getName());
+
+	private final int sampleEvery;
+	private final AsyncWriter asyncWriter;
+
+	/**
+	 * @param sampleEvery    trace one event or response out of this many, zero or less to disable tracing
+	 * @param asyncQueueSize number of traces waiting to be written by a background thread, zero or less to write
+	 *                       traces on the calling thread
+	 */
+	public EventTracer(int sampleEvery, int asyncQueueSize) {
+		this.sampleEvery = sampleEvery;
+		this.asyncWriter = asyncQueueSize > 0 && sampleEvery > 0 ? new AsyncWriter(asyncQueueSize) : null;
+	}
+
+	/**
+	 * @return tracer that never traces
+	 */
+	public static EventTracer disabled() {
+		return new EventTracer(0, 0);
+	}
+
+	/**
+	 * @return whether traces are written
+	 */
+	public boolean isEnabled() {
+		return sampleEvery > 0 && logger.isLoggable(Level.FINE);
+	}
+
+	/**
+	 * Traces a sample of the responses, their size rather than their content
+	 *
+	 * @param topicName
+	 * @param response
+	 */
+	public void traceResponse(String topicName, FetchResponse response) {
+		if (!isSampled()) {
+			return;
+		}
+		int eventCount = response.getEventsCount();
+		long latestReplayId = ReplayId.toLong(response.getLatestReplayId());
+		int pendingRequested = response.getPendingNumRequested();
+		write(() -> "response topic=" + topicName + " events=" + eventCount + " latestReplayId=" + latestReplayId
+				+ " pendingRequested=" + pendingRequested);
+	}
+
+	/**
+	 * Traces a sample of the handled events
+	 *
+	 * @param topicName
+	 * @param event
+	 */
+	public void traceEvent(String topicName, Event event) {
+		if (!isSampled()) {
+			return;
+		}
+		long replayId = event.getReplayId();
+		ChangeEventHeader header = event.getHeader();
+		if (header == null) {
+			String schemaName = event.getPayload().getSchema().getFullName();
+			write(() -> "event topic=" + topicName + " replayId=" + replayId + " schema=" + schemaName);
+			return;
+		}
+		ChangeEventHeader.ChangeType changeType = header.getChangeType();
+		String entityName = header.getEntityName();
+		List<String> recordIds = header.getRecordIds();
+		List<String> changedFields = header.getChangedFields();
+		write(() -> "event topic=" + topicName + " replayId=" + replayId + " changeType=" + changeType + " entity="
+				+ entityName + " recordIds=" + String.join(",", recordIds) + " changedFields="
+				+ String.join(",", changedFields));
+	}
+
+	private boolean isSampled() {
+		return isEnabled() && (sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0);
+	}
+
+	/**
+	 * Writes the queued traces and stops the background thread
+	 */
+	public void close() {
+		if (asyncWriter != null) {
+			asyncWriter.close();
+		}
+	}
+
+	private void write(Supplier<String> message) {
+		if (asyncWriter != null) {
+			asyncWriter.offer(message);
+		} else {
+			logger.log(Level.FINE, message);
+		}
+	}
+
+	/**
+	 * Formats and logs traces on a daemon thread
+	 */
+	private static class AsyncWriter {
+		private final BlockingQueue<Supplier<String>> queue;
+		private final AtomicLong dropped = new AtomicLong();
+		private final Thread thread;
+		private volatile boolean running = true;
+
+		private AsyncWriter(int capacity) {
+			this.queue = new ArrayBlockingQueue<>(capacity);
+			this.thread = new Thread(this::run, "pubsub-tracer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void offer(Supplier<String> message) {
+			if (!queue.offer(message)) {
+				dropped.incrementAndGet();
+			}
+		}
+
+		private void run() {
+			while (running) {
+				Supplier<String> message;
+				try {
+					message = queue.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+				writeDropped();
+				logger.log(Level.FINE, message);
+			}
+			Supplier<String> message;
+			while ((message = queue.poll()) != null) {
+				logger.log(Level.FINE, message);
+			}
+			writeDropped();
+		}
+
+		private void writeDropped() {
+			long droppedCount = dropped.getAndSet(0);
+			if (droppedCount > 0) {
+				logger.fine("Dropped " + droppedCount + " trace(s), the trace queue was full");
+			}
+		}
+
+		private void close() {
+			running = false;
+			thread.interrupt();
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package org.salesforce.demo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.salesforce.eventbus.protobuf.FetchRequest;
+import com.salesforce.eventbus.protobuf.FetchResponse;
+
+import io.grpc.stub.ClientCallStreamObserver;
+
+/**
+ * Adaptive credit window for a subscribe stream.
+ * Tracks the events that were requested from the server but not processed yet and tops up the window with a new
+ * FetchRequest whenever it drops to the low-water mark. The batch size doubles when the server runs out of credits
+ * while the handler keeps up, and it is halved when a full batch would take longer than the target batch time.
+ * Credits are only sent for events that have a reserved slot in the event pipeline.
+ */
+public class FlowController {
+	private static final Logger logger = Logger.getLogger(FlowController.class.getName());
+
+	/**
+	 * Maximum number of events that the Pub/Sub API accepts in a single FetchRequest
+	 */
+	public static final int MAX_BATCH_SIZE = 100;
+
+	private final ClientCallStreamObserver<FetchRequest> requestStream;
+	private final FetchRequest initialRequest;
+	private final String topicName;
+	private final Settings settings;
+	private final long eventLimit;
+	private final EventPipeline pipeline;
+
+	private boolean started = false;
+	private boolean completed = false;
+	private int batchSize;
+	private int outstanding = 0;
+	private long requestedTotal = 0;
+	private long deliveredTotal = 0;
+
+	/**
+	 * @param requestStream  subscribe request stream
+	 * @param initialRequest first request of the stream with the topic name and replay options, its number of
+	 *                       requested events is set by the flow controller
+	 * @param eventLimit     total number of events to receive, zero or less for no limit
+	 * @param settings       flow control settings
+	 * @param pipeline       pipeline in which capacity is reserved for the requested events
+	 */
+	public FlowController(ClientCallStreamObserver<FetchRequest> requestStream, FetchRequest initialRequest,
+			long eventLimit, Settings settings, EventPipeline pipeline) {
+		this.requestStream = requestStream;
+		this.initialRequest = initialRequest;
+		this.topicName = initialRequest.getTopicName();
+		this.eventLimit = eventLimit;
+		this.settings = settings;
+		this.pipeline = pipeline;
+		this.batchSize = settings.initialBatchSize;
+	}
+
+	/**
+	 * Called whenever the request stream becomes ready. Sends the initial request the first time and tops up
+	 * credits that could not be sent while the stream was not ready.
+	 */
+	public synchronized void onReady() {
+		if (completed) {
+			return;
+		}
+		if (!started) {
+			started = requestMore(initialRequest.toBuilder());
+		} else {
+			topUp();
+		}
+	}
+
+	/**
+	 * Called by the pipeline when capacity is released after a reservation failed
+	 */
+	public void onCapacityAvailable() {
+		onReady();
+	}
+
+	/**
+	 * Called when a response is received, before its events are processed
+	 *
+	 * @param response
+	 */
+	public synchronized void onResponse(FetchResponse response) {
+		deliveredTotal += response.getEventsCount();
+		// The server drained all of our credits: events are waiting on us rather than the other way around
+		if (response.getEventsCount() > 0 && response.getPendingNumRequested() == 0
+				&& batchSize < settings.maxBatchSize) {
+			batchSize = Math.min(batchSize * 2, settings.maxBatchSize);
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Credits exhausted on " + topicName + ", growing batch size to " + batchSize);
+			}
+		}
+	}
+
+	/**
+	 * Called once a group of events has been handled
+	 *
+	 * @param eventCount   number of handled events
+	 * @param elapsedNanos time spent handling the events
+	 */
+	public synchronized void onProcessed(int eventCount, long elapsedNanos) {
+		if (eventCount > 0) {
+			outstanding = Math.max(0, outstanding - eventCount);
+			// Shrink the window when the handler could not process a full batch within the target time
+			long projectedBatchNanos = elapsedNanos / eventCount * batchSize;
+			if (projectedBatchNanos > settings.targetBatchNanos && batchSize > settings.minBatchSize) {
+				batchSize = Math.max(batchSize / 2, settings.minBatchSize);
+				if (logger.isLoggable(Level.FINE)) {
+					logger.fine("Handler falling behind on " + topicName + ", shrinking batch size to " + batchSize);
+				}
+			}
+		}
+		topUp();
+	}
+
+	/**
+	 * Called once the stream is over: no further credits are sent and the pipeline capacity that was reserved for
+	 * events that will never be delivered is released
+	 */
+	public void close() {
+		int undelivered;
+		synchronized (this) {
+			if (completed) {
+				return;
+			}
+			completed = true;
+			undelivered = (int) Math.max(0, requestedTotal - deliveredTotal);
+		}
+		// Released outside of the lock as it may resume other flow controllers
+		pipeline.release(undelivered);
+	}
+
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+
+	public synchronized int getOutstanding() {
+		return outstanding;
+	}
+
+	private void topUp() {
+		// A mark close to the window size would send a request for every handled event
+		int lowWaterMark = Math.min(settings.lowWaterMark, batchSize / 2);
+		if (!completed && started && outstanding <= lowWaterMark && requestStream.isReady()) {
+			requestMore(FetchRequest.newBuilder());
+		}
+	}
+
+	/**
+	 * @return whether a request was sent
+	 */
+	private boolean requestMore(FetchRequest.Builder builder) {
+		long count = batchSize - outstanding;
+		if (eventLimit > 0) {
+			count = Math.min(count, eventLimit - requestedTotal);
+		}
+		if (count <= 0) {
+			return false;
+		}
+		// Stop requesting events while the pipeline is full
+		int reserved = pipeline.reserve(this, (int) count);
+		if (reserved == 0) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.fine("Event pipeline full, pausing requests on " + topicName);
+			}
+			return false;
+		}
+		outstanding += reserved;
+		requestedTotal += reserved;
+		requestStream.onNext(builder.setNumRequested(reserved).build());
+		return true;
+	}
+
+	/**
+	 * Flow control settings
+	 */
+	public static class Settings {
+		private final int initialBatchSize;
+		private final int minBatchSize;
+		private final int maxBatchSize;
+		private final int lowWaterMark;
+		private final long targetBatchMillis;
+		private final long targetBatchNanos;
+
+		/**
+		 * @param initialBatchSize  number of events requested by the first FetchRequest
+		 * @param minBatchSize      lower bound for the credit window
+		 * @param maxBatchSize      upper bound for the credit window, capped at {@link FlowController#MAX_BATCH_SIZE}
+		 * @param lowWaterMark      number of unprocessed events below which credits are topped up, lowered to half
+		 *                          of the current batch size when it is larger
+		 * @param targetBatchMillis time in which the handler should be able to process a full batch
+		 */
+		public Settings(int initialBatchSize, int minBatchSize, int maxBatchSize, int lowWaterMark,
+				long targetBatchMillis) {
+			this.maxBatchSize = Math.max(1, Math.min(maxBatchSize, MAX_BATCH_SIZE));
+			this.minBatchSize = Math.max(1, Math.min(minBatchSize, this.maxBatchSize));
+			this.initialBatchSize = Math.max(this.minBatchSize, Math.min(initialBatchSize, this.maxBatchSize));
+			this.lowWaterMark = Math.max(0, lowWaterMark);
+			this.targetBatchMillis = targetBatchMillis;
+			this.targetBatchNanos = TimeUnit.MILLISECONDS.toNanos(targetBatchMillis);
+		}
+
+		/**
+		 * @param initialBatchSize
+		 * @return a copy of these settings with another initial batch size
+		 */
+		public Settings withInitialBatchSize(int initialBatchSize) {
+			return new Settings(initialBatchSize, minBatchSize, maxBatchSize, lowWaterMark, targetBatchMillis);
+		}
+
+		public int getInitialBatchSize() {
+			return initialBatchSize;
+		}
+	}
+}
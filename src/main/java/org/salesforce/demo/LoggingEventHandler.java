@@ -0,0 +1,33 @@
+package org.salesforce.demo;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.salesforce.demo.events.ChangeEventHeader;
+import org.salesforce.demo.events.Event;
+
+/**
+ * Default event handler that logs the content of Change Data Capture events at FINE level, and their full payload at
+ * FINEST level. Nothing is formatted unless the level is enabled.
+ */
+public class LoggingEventHandler implements EventHandler {
+	private static final Logger logger = Logger.getLogger(LoggingEventHandler.class.getName());
+
+	@Override
+	public void handle(String topicName, Event event) {
+		if (!logger.isLoggable(Level.FINE)) {
+			return;
+		}
+		ChangeEventHeader header = event.getHeader();
+		if (header != null) {
+			logger.fine(header.getChangeType() + " operation on " + header.getEntityName() + " with record ID "
+					+ String.join(",", header.getRecordIds()) + " (replay ID " + event.getReplayId()
+					+ "), changed fields: " + String.join(", ", header.getChangedFields()));
+		} else {
+			logger.fine("Event on " + topicName + " with replay ID " + event.getReplayId());
+		}
+		if (logger.isLoggable(Level.FINEST)) {
+			logger.finest("Event raw payload: " + event);
+		}
+	}
+}
@@ -1,122 +1,429 @@
 package org.salesforce.demo;
 
-import io.grpc.ClientInterceptor;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
-import io.grpc.Metadata;
-import io.grpc.StatusRuntimeException;
-import io.grpc.stub.MetadataUtils;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.avro.Schema;
 import org.salesforce.demo.auth.AuthenticationHelper;
+import org.salesforce.demo.checkpoint.CheckpointStore;
+import org.salesforce.demo.checkpoint.FileCheckpointStore;
+import org.salesforce.demo.checkpoint.InMemoryCheckpointStore;
+import org.salesforce.demo.checkpoint.NamespacedCheckpointStore;
 import org.salesforce.demo.auth.AuthenticationHelper.AuthenticationException;
+import org.salesforce.demo.auth.JwtBearerAuthenticator;
+import org.salesforce.demo.auth.SessionManager;
+import org.salesforce.demo.auth.SessionProvider;
 import org.salesforce.demo.utils.Config;
-import org.salesforce.demo.auth.SalesforceSession;
-
-import com.salesforce.eventbus.protobuf.PubSubGrpc;
-import com.salesforce.eventbus.protobuf.SchemaInfo;
-import com.salesforce.eventbus.protobuf.SchemaRequest;
-import com.salesforce.eventbus.protobuf.TopicInfo;
-import com.salesforce.eventbus.protobuf.TopicRequest;
+import org.salesforce.demo.utils.VirtualThreads;
+import org.salesforce.demo.events.EventFilter;
+import org.salesforce.demo.events.FieldProjection;
+import org.salesforce.demo.metrics.LoggingMetricsExporter;
+import org.salesforce.demo.metrics.MetricsExporter;
+import org.salesforce.demo.metrics.MetricsRegistry;
 
+/**
+ * Connects to the Pub/Sub API and owns the transport shared by the orgs it serves: the channels, workers, scheduler,
+ * tracer, checkpoint store and metrics registry. The org the client connected with is its default tenant, which the
+ * subscribe and publish methods of the client use; other orgs are added with {@link #addTenant}.
+ */
 public class PubSubApiClient {
 	private static final Logger logger = Logger.getLogger(PubSubApiClient.class.getName());
 
-	private boolean isShuttingDown = false;
-	private ManagedChannel channel;
-	private PubSubGrpc.PubSubStub stub;
-	private PubSubGrpc.PubSubBlockingStub blockingStub;
+	private Config config;
+	private List<ManagedChannel> channels = new ArrayList<>();
+	private CheckpointStore checkpointStore;
+	private ScheduledExecutorService scheduler;
+	private ExecutorService channelExecutor;
+	private EventPipeline pipeline;
+	private EventTracer tracer;
+	private MetricsRegistry registry = new MetricsRegistry();
+	private volatile MetricsExporter metricsExporter = new LoggingMetricsExporter();
+	private Tenant defaultTenant;
+	private final Map<String, Tenant> tenants = new ConcurrentHashMap<>();
 
 	public void connect(Config config) throws PubSubException {
+		SessionProvider sessionProvider;
+		if (config.getJwtClientId() == null) {
+			sessionProvider = () -> AuthenticationHelper.login(config.getLoginUrl(), config.getUsername(),
+					config.getPassword(), config.getToken());
+		} else {
+			try {
+				PrivateKey privateKey = JwtBearerAuthenticator
+						.loadPrivateKey(Paths.get(config.getJwtPrivateKeyFile()));
+				sessionProvider = new JwtBearerAuthenticator(config.getLoginUrl(), config.getJwtClientId(),
+						config.getUsername(), config.getJwtAudience(), privateKey);
+			} catch (AuthenticationException e) {
+				throw new PubSubException(e.getMessage(), e);
+			}
+		}
+		SessionManager sessionManager = newSessionManager(config, sessionProvider);
+		try {
+			connect(config, sessionManager, true);
+		} catch (PubSubException e) {
+			sessionManager.close();
+			throw e;
+		}
+	}
 
+	/**
+	 * Connects with the session of a session manager, which may be shared with other clients. The session manager is
+	 * not closed when the client disconnects.
+	 *
+	 * @param config
+	 * @param sessionManager
+	 * @throws PubSubException
+	 */
+	public void connect(Config config, SessionManager sessionManager) throws PubSubException {
+		connect(config, sessionManager, false);
+	}
+
+	private void connect(Config config, SessionManager sessionManager, boolean ownsSessionManager)
+			throws PubSubException {
 		logger.info("PubSub API: retrieving Salesforce session...");
-		SalesforceSession session;
+		String tenantId;
 		try {
-			session = AuthenticationHelper.login(config.getLoginUrl(), config.getUsername(), config.getPassword(),
-					config.getToken());
+			// Logs in unless the session is already cached
+			tenantId = sessionManager.getSession().getOrgId();
 		} catch (AuthenticationException e) {
 			throw new PubSubException("Failed to retrieve Salesforce session: " + e.getMessage(), e);
 		}
 
+		boolean virtualThreads = isVirtualThreadsEnabled(config);
 		logger.info("PubSub API: connecting to " + config.getPubSubEndpoint() + "...");
+		List<ManagedChannel> channels = new ArrayList<>();
 		try {
-			// Prepare metadata with auth information
-			Metadata metadata = new Metadata();
-			metadata.put(Metadata.Key.of("accesstoken", Metadata.ASCII_STRING_MARSHALLER), session.getAccessToken());
-			metadata.put(Metadata.Key.of("instanceurl", Metadata.ASCII_STRING_MARSHALLER), session.getInstanceUrl());
-			metadata.put(Metadata.Key.of("tenantid", Metadata.ASCII_STRING_MARSHALLER), session.getOrgId());
-			// Inject metadata in all client requests with an interceptor
-			ClientInterceptor interceptor = MetadataUtils.newAttachHeadersInterceptor(metadata);
-			channel = ManagedChannelBuilder.forTarget(config.getPubSubEndpoint()).intercept(interceptor).build();
-
-			// We use a non-blocking stub for subscribe request and async event handling
-			stub = PubSubGrpc.newStub(channel);
-			// We use a blocking stub for getTopic and getSchema requests (less code
-			// required)
-			blockingStub = PubSubGrpc.newBlockingStub(channel);
+			// gRPC callbacks, and the blocking calls they make, run on virtual threads rather than on gRPC's cached
+			// thread pool
+			if (virtualThreads) {
+				channelExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+			}
+			// Subscriptions are multiplexed over a small pool of channels
+			for (int i = 0; i < Math.max(1, config.getChannelPoolSize()); i++) {
+				ManagedChannelBuilder<?> channelBuilder = ManagedChannelBuilder.forTarget(config.getPubSubEndpoint());
+				if (channelExecutor != null) {
+					channelBuilder.executor(channelExecutor);
+				}
+				channels.add(channelBuilder.build());
+			}
 		} catch (Exception e) {
 			throw new PubSubException("Failed to connect: " + e.getMessage(), e);
 		}
+		setUp(config, channels, virtualThreads);
+		defaultTenant = new Tenant(tenantId, sessionManager, ownsSessionManager, config, channels, channelExecutor,
+				scheduler, pipeline, tracer, checkpointStore, registry.withTags("tenant", tenantId));
+	}
+
+	/**
+	 * Connects over channels that are already built, for instance to a local server. No login takes place: the
+	 * channels must attach the authentication headers that the server expects. The channels are shut down when the
+	 * client disconnects.
+	 *
+	 * @param config
+	 * @param channels channels that subscriptions and publishers are spread over
+	 * @throws PubSubException
+	 */
+	public void connect(Config config, List<ManagedChannel> channels) throws PubSubException {
+		if (channels.isEmpty()) {
+			throw new PubSubException("At least one channel is required", null);
+		}
+		setUp(config, channels, isVirtualThreadsEnabled(config));
+		defaultTenant = new Tenant(null, null, false, config, channels, channelExecutor, scheduler, pipeline, tracer,
+				checkpointStore, registry);
+	}
+
+	/**
+	 * Adds an org served over the channels of this client. The subscriptions and publishers of the tenant share the
+	 * channels, workers, scheduler and checkpoint store of this client, while calls carry the credentials of the
+	 * tenant. Each tenant has its own session, renewed in the background, its own schema cache and metrics tagged
+	 * with its ID, and its checkpoints are namespaced by its ID. The tenant logs in on its first call, so that adding
+	 * many tenants doesn't wait for their logins.
+	 *
+	 * @param tenantId        key of the tenant, such as its org ID
+	 * @param sessionProvider opens sessions of the tenant
+	 * @return tenant, removed when this client disconnects
+	 * @throws PubSubException if a tenant with the same ID was already added
+	 */
+	public Tenant addTenant(String tenantId, SessionProvider sessionProvider) throws PubSubException {
+		if (defaultTenant == null) {
+			throw new IllegalStateException("Tenants can only be added to a connected client");
+		}
+		if (tenants.containsKey(tenantId)) {
+			throw new PubSubException("Tenant " + tenantId + " was already added", null);
+		}
+		logger.info("PubSub API: adding tenant " + tenantId + "...");
+		Tenant tenant = new Tenant(tenantId, newSessionManager(config, sessionProvider), true, config, channels,
+				channelExecutor, scheduler, pipeline, tracer, new NamespacedCheckpointStore(checkpointStore, tenantId),
+				registry.withTags("tenant", tenantId));
+		if (tenants.putIfAbsent(tenantId, tenant) != null) {
+			tenant.close();
+			throw new PubSubException("Tenant " + tenantId + " was already added", null);
+		}
+		return tenant;
+	}
+
+	/**
+	 * @param tenantId
+	 * @return tenant or null if there is none
+	 */
+	public Tenant getTenant(String tenantId) {
+		return tenants.get(tenantId);
+	}
+
+	/**
+	 * @return IDs of the tenants added to this client
+	 */
+	public List<String> getTenantIds() {
+		return new ArrayList<>(tenants.keySet());
+	}
+
+	/**
+	 * Stops the subscriptions and publishers of a tenant and closes its session
+	 *
+	 * @param tenantId
+	 * @return false if there was no such tenant
+	 */
+	public boolean removeTenant(String tenantId) {
+		Tenant tenant = tenants.remove(tenantId);
+		if (tenant == null) {
+			return false;
+		}
+		logger.info("PubSub API: removing tenant " + tenantId + "...");
+		tenant.close();
+		return true;
+	}
+
+	/**
+	 * @return ID of the tenant of this client, the org ID when the client logged in, null when it connected over
+	 *         existing channels
+	 */
+	public String getTenantId() {
+		return defaultTenant.getTenantId();
+	}
+
+	private static SessionManager newSessionManager(Config config, SessionProvider sessionProvider) {
+		return new SessionManager(sessionProvider, TimeUnit.SECONDS.toMillis(config.getSessionRefreshMarginSeconds()),
+				TimeUnit.SECONDS.toMillis(config.getSessionRetryDelaySeconds()));
+	}
+
+	private boolean isVirtualThreadsEnabled(Config config) {
+		if (config.isVirtualThreads() && !VirtualThreads.isSupported()) {
+			logger.warning("PubSub API: virtual threads require Java 21 or later, using platform threads");
+			return false;
+		}
+		return config.isVirtualThreads();
+	}
+
+	/**
+	 * Creates the resources shared by the tenants of this client
+	 */
+	private void setUp(Config config, List<ManagedChannel> channels, boolean virtualThreads) throws PubSubException {
+		this.config = config;
+		this.channels.addAll(channels);
+		// Schedules subscription reconnects, publish linger timers and metric exports
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "pubsub-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			if (config.getCheckpointFile() == null) {
+				checkpointStore = new InMemoryCheckpointStore();
+			} else {
+				logger.info("PubSub API: loading checkpoints from " + config.getCheckpointFile() + "...");
+				checkpointStore = new FileCheckpointStore(Paths.get(config.getCheckpointFile()),
+						config.getCheckpointFlushIntervalMillis());
+			}
+		} catch (IOException e) {
+			throw new PubSubException("Failed to open checkpoint store: " + e.getMessage(), e);
+		}
+
+		// Events are decoded and handled off the gRPC threads
+		if (virtualThreads) {
+			// Handlers may block on I/O without tying up a platform thread per lane
+			pipeline = new EventPipeline(config.getPipelineWorkers(), config.getPipelineCapacity(),
+					config.getPipelineOrderingKey(), VirtualThreads.newThreadFactory("pubsub-worker-"));
+		} else {
+			pipeline = new EventPipeline(config.getPipelineWorkers(), config.getPipelineCapacity(),
+					config.getPipelineOrderingKey());
+		}
+		pipeline.registerMetrics(registry);
+		tracer = new EventTracer(config.getTraceSampleEvery(), config.getTraceAsyncQueueSize());
+		int exportInterval = config.getMetricsExportIntervalSeconds();
+		if (exportInterval > 0) {
+			scheduler.scheduleAtFixedRate(() -> registry.export(metricsExporter), exportInterval, exportInterval,
+					TimeUnit.SECONDS);
+		}
 	}
 
 	public void disconnect() throws PubSubException {
-		if (channel != null) {
+		for (String tenantId : getTenantIds()) {
+			removeTenant(tenantId);
+		}
+		if (defaultTenant != null) {
+			defaultTenant.close();
+		}
+		if (pipeline != null) {
+			pipeline.close();
+		}
+		if (tracer != null) {
+			tracer.close();
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (checkpointStore != null) {
+			checkpointStore.close();
+		}
+		if (!channels.isEmpty()) {
 			logger.info("PubSub API: disconnecting...");
 			try {
-				channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+				for (ManagedChannel channel : channels) {
+					channel.shutdownNow();
+				}
+				for (ManagedChannel channel : channels) {
+					channel.awaitTermination(5, TimeUnit.SECONDS);
+				}
+				// Channels don't shut down executors they were given
+				if (channelExecutor != null) {
+					channelExecutor.shutdownNow();
+				}
 			} catch (Exception e) {
 				throw new PubSubException("Failed to disconnect: " + e.getMessage(), e);
 			}
 		}
 	}
 
-	private TopicInfo retrieveTopic(String topicName) throws PubSubException {
-		logger.info("PubSub API: retrieving topic " + topicName + "...");
-		TopicRequest request = TopicRequest.newBuilder().setTopicName(topicName).build();
-		try {
-			return blockingStub.getTopic(request);
-		} catch (StatusRuntimeException e) {
-			throw new PubSubException("Failed to retrieve topic " + topicName + ": " + e.getMessage(), e);
-		}
+	/**
+	 * Retrieves the current schema of a topic and adds it to the schema cache
+	 * 
+	 * @param topicName
+	 * @return topic schema
+	 * @throws PubSubException
+	 */
+	public Schema retrieveTopicSchema(String topicName) throws PubSubException {
+		return defaultTenant.retrieveTopicSchema(topicName);
 	}
 
-	public Schema retrieveTopicSchema(String topicName) throws PubSubException {
-		TopicInfo topic = retrieveTopic(topicName);
-		logger.info("PubSub API: retrieving schema for topic " + topicName + "...");
-		SchemaRequest request = SchemaRequest.newBuilder().setSchemaId(topic.getSchemaId()).build();
-		try {
-			SchemaInfo response = blockingStub.getSchema(request);
-			return new Schema.Parser().parse(response.getSchemaJson());
-		} catch (StatusRuntimeException e) {
-			throw new PubSubException(
-					"Failed to retrieve schema for topic " + topic.getTopicName() + ": " + e.getMessage(), e);
-		}
-	}
-
-	public void subscribe(String topicName, Schema schema, int eventCountRequested) {
-		logger.info(
-				"PubSub API: subscribing to " + topicName + " and waiting for " + eventCountRequested + " events...");
-		// Subscribe to incoming events
-		stub.subscribe(new PubSubEventObserver(this, topicName, schema, eventCountRequested));
-		// Keep program alive while we listen, we shutdown after receiving the requested
-		// number of events
-		// WARNING: This is a hack for the demo, use a separate thread for production
-		while (!this.isShuttingDown) {
-			try {
-				Thread.sleep(50);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
+	/**
+	 * Retrieves the current schema of several topics and adds them to the schema cache. With virtual threads, each
+	 * topic is retrieved concurrently on its own thread.
+	 * 
+	 * @param topicNames
+	 * @throws PubSubException
+	 */
+	public void retrieveTopicSchemas(List<String> topicNames) throws PubSubException {
+		defaultTenant.retrieveTopicSchemas(topicNames);
 	}
 
+	/**
+	 * Opens a publisher for a topic. Records are serialized with the current schema of the topic.
+	 * 
+	 * @param topicName
+	 * @return publisher, closed when the client disconnects
+	 * @throws PubSubException if the topic can't be retrieved or doesn't allow publishing
+	 */
+	public EventPublisher createPublisher(String topicName) throws PubSubException {
+		return defaultTenant.createPublisher(topicName);
+	}
+
+	/**
+	 * @return metrics of the subscriptions, publishers and schema caches of all tenants
+	 */
+	public MetricsRegistry getMetrics() {
+		return registry;
+	}
+
+	/**
+	 * Replaces the default exporter, which logs the metrics
+	 *
+	 * @param metricsExporter
+	 */
+	public void setMetricsExporter(MetricsExporter metricsExporter) {
+		this.metricsExporter = metricsExporter;
+	}
+
+	/**
+	 * @return manager used to add and remove topic subscriptions at runtime
+	 */
+	public SubscriptionManager getSubscriptionManager() {
+		return defaultTenant.getSubscriptionManager();
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 * 
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested) {
+		return defaultTenant.subscribe(topicName, eventCountRequested);
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 * 
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @param handler             processes the events of the subscription
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested, EventHandler handler) {
+		return defaultTenant.subscribe(topicName, eventCountRequested, handler);
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 * 
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @param handler             processes the events of the subscription
+	 * @param filter              events that are passed to the handler
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested, EventHandler handler,
+			EventFilter filter) {
+		return defaultTenant.subscribe(topicName, eventCountRequested, handler, filter);
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 * 
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @param handler             processes the events of the subscription
+	 * @param filter              events that are passed to the handler
+	 * @param projection          fields of the events that are decoded or null to decode all fields
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested, EventHandler handler,
+			EventFilter filter, FieldProjection projection) {
+		return defaultTenant.subscribe(topicName, eventCountRequested, handler, filter, projection);
+	}
+
+	/**
+	 * Stops all subscriptions of the client, not those of the tenants added to it
+	 */
 	public void shutdown() {
-		this.isShuttingDown = true;
+		if (defaultTenant != null) {
+			defaultTenant.shutdown();
+		}
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -124,8 +431,15 @@ public class PubSubApiClient {
 		PubSubApiClient client = new PubSubApiClient();
 		try {
 			client.connect(config);
-			Schema topicSchema = client.retrieveTopicSchema(config.getPubSubTopicName());
-			client.subscribe(config.getPubSubTopicName(), topicSchema, config.getPubSubEventReceiveLimit());
+			client.retrieveTopicSchemas(config.getPubSubTopicNames());
+			List<CompletableFuture<Void>> completions = new ArrayList<>();
+			for (String topicName : config.getPubSubTopicNames()) {
+				Subscription subscription = client.subscribe(topicName, config.getPubSubEventReceiveLimit(),
+						new LoggingEventHandler(), config.getEventFilter(), config.getFieldProjection());
+				completions.add(subscription.getCompletion());
+			}
+			// Wait until all subscriptions are over
+			CompletableFuture.allOf(completions.toArray(new CompletableFuture<?>[0])).join();
 		} catch (Exception e) {
 			logger.log(Level.SEVERE, e.getMessage(), e);
 		} finally {
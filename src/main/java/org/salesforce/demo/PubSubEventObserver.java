@@ -1,15 +1,18 @@
 package org.salesforce.demo;
 
 import java.util.List;
-import java.util.logging.Level;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import org.apache.avro.Schema;
+import org.salesforce.demo.checkpoint.CheckpointStore;
 import org.salesforce.demo.events.ChangeEventHeader;
 import org.salesforce.demo.events.Event;
+import org.salesforce.demo.events.EventFilter;
 import org.salesforce.demo.events.EventParser;
 import org.salesforce.demo.events.EventParser.EventParseException;
 
+import com.google.protobuf.ByteString;
 import com.salesforce.eventbus.protobuf.ConsumerEvent;
 import com.salesforce.eventbus.protobuf.FetchRequest;
 import com.salesforce.eventbus.protobuf.FetchResponse;
@@ -18,61 +21,199 @@ import io.grpc.stub.ClientCallStreamObserver;
 import io.grpc.stub.ClientResponseObserver;
 
 public class PubSubEventObserver implements ClientResponseObserver<FetchRequest, FetchResponse> {
-	private PubSubApiClient client;
+	private SubscriptionSupervisor supervisor;
+	private FetchRequest initialRequest;
 	private String topicName;
-	private Schema schema;
-	private int eventCoundRequested;
+	private EventParser parser;
+	private EventHandler handler;
+	private EventFilter filter;
+	private EventPipeline pipeline;
+	private long eventCoundRequested;
+	private FlowController.Settings flowControlSettings;
+	private FlowController flowController;
+	private CheckpointStore checkpointStore;
+	private SubscriptionMetrics metrics;
+	private EventTracer tracer;
+	private ClientCallStreamObserver<FetchRequest> requestStream;
+	private ReplayTracker replayTracker;
+	/**
+	 * Hand-offs waiting for schemas to load. Only touched by the gRPC callbacks of the stream, which don't overlap.
+	 */
+	private CompletableFuture<Void> pendingHandOffs = CompletableFuture.completedFuture(null);
 
 	private static final Logger logger = Logger.getLogger(PubSubEventObserver.class.getName());
 
-	public PubSubEventObserver(PubSubApiClient client, String topicName, Schema schema, int eventCoundRequested) {
-		this.client = client;
-		this.topicName = topicName;
-		this.schema = schema;
+	public PubSubEventObserver(SubscriptionSupervisor supervisor, FetchRequest initialRequest, EventParser parser,
+			EventHandler handler, EventFilter filter, EventPipeline pipeline, long eventCoundRequested,
+			FlowController.Settings flowControlSettings, CheckpointStore checkpointStore, ReplayTracker replayTracker,
+			SubscriptionMetrics metrics, EventTracer tracer) {
+		this.supervisor = supervisor;
+		this.initialRequest = initialRequest;
+		this.topicName = initialRequest.getTopicName();
+		this.parser = parser;
+		this.handler = handler;
+		this.filter = filter;
+		this.pipeline = pipeline;
 		this.eventCoundRequested = eventCoundRequested;
+		this.flowControlSettings = flowControlSettings;
+		this.checkpointStore = checkpointStore;
+		this.replayTracker = replayTracker;
+		this.metrics = metrics;
+		this.tracer = tracer;
 	}
 
+	/**
+	 * Runs on the gRPC callback thread: events are only handed off to the pipeline, they are decoded and handled by
+	 * the pipeline workers. Only the ordering key is read here to pick the lane of each event. When the schema of an
+	 * event isn't cached yet, it is loaded in the background and the events of this response and the next ones are
+	 * handed off once it is, so the callback thread never blocks and the events keep their delivery order.
+	 */
 	@Override
 	public void onNext(FetchResponse value) {
-		logger.info("Next event: " + value.toString());
-		EventParser parser = new EventParser(schema);
-		List<ConsumerEvent> consumerEvents = value.getEventsList();
+		tracer.traceResponse(topicName, value);
+		supervisor.onResponse(this);
+		flowController.onResponse(value);
+		metrics.received.add(value.getEventsCount());
+		metrics.fetchBatchSize.record(value.getEventsCount());
+		metrics.pendingRequested.record(value.getPendingNumRequested());
+		supervisor.onDelivered(this, value.getEventsCount());
+		// Events are registered right away so that a reconnect resumes after them even if they are still waiting
+		List<ConsumerEvent> events = value.getEventsList();
+		ReplayTracker.Slot[] slots = new ReplayTracker.Slot[events.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = replayTracker.register(events.get(i).getReplayId());
+		}
+		// A keep-alive response moves the checkpoint forward once all previous events are processed
+		if (events.isEmpty() && !value.getLatestReplayId().isEmpty()) {
+			saveCheckpoint(replayTracker.registerProcessed(value.getLatestReplayId()));
+		}
+		if (events.isEmpty()) {
+			return;
+		}
+		CompletableFuture<Void> schemasLoaded = parser.loadSchemas(events);
+		if (schemasLoaded == null && pendingHandOffs.isDone()) {
+			handOff(events, slots);
+			return;
+		}
+		CompletableFuture<Void> ready = schemasLoaded == null ? pendingHandOffs
+				: CompletableFuture.allOf(pendingHandOffs, schemasLoaded);
+		pendingHandOffs = ready.handle((v, t) -> {
+			handOff(events, slots);
+			return null;
+		});
+	}
+
+	private void handOff(List<ConsumerEvent> events, ReplayTracker.Slot[] slots) {
+		for (int i = 0; i < slots.length; i++) {
+			pipeline.submit(this, events.get(i), slots[i], parseOrderingKey(events.get(i)));
+		}
+	}
+
+	/**
+	 * Reads the key that decides which pipeline lane processes the event
+	 *
+	 * @param consumerEvent
+	 * @return ordering key or null if the event can be processed in any order
+	 */
+	private String parseOrderingKey(ConsumerEvent consumerEvent) {
+		try {
+			return parser.parseOrderingKey(consumerEvent, pipeline.getOrderingKey());
+		} catch (EventParseException e) {
+			// The worker fails to parse the event as well and reports the error
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes and handles an event, called by the pipeline workers
+	 *
+	 * @param consumerEvent
+	 * @param slot          replay tracking slot of the event
+	 */
+	void process(ConsumerEvent consumerEvent, ReplayTracker.Slot slot) {
+		if (supervisor.isStopped()) {
+			// Events still queued when the subscription stopped are dropped, the checkpoint stays before them
+			metrics.dropped.increment();
+			return;
+		}
+		long processingStart = System.nanoTime();
 		try {
-			for (ConsumerEvent consumerEvent : consumerEvents) {
+			// Events rejected by the filter are only decoded up to their header
+			if (parser.matches(consumerEvent, filter)) {
 				Event event = parser.parse(consumerEvent);
-				logger.info("Event raw payload: " + event);
-				logger.info("Event replay ID: " + event.getReplayId());
+				long decodedAt = System.nanoTime();
+				metrics.decoded.increment();
+				metrics.decodeMicros.record(TimeUnit.NANOSECONDS.toMicros(decodedAt - processingStart));
+				handler.handle(topicName, event);
+				metrics.handleMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - decodedAt));
+				tracer.traceEvent(topicName, event);
 				ChangeEventHeader header = event.getHeader();
-				logger.info(header.getChangeType() + " operation on " + header.getEntityName() + " with record ID "
-						+ String.join(",", header.getRecordIds()));
-				logger.info("Changed fields: " + String.join(", ", header.getChangedFields()));
-			}	
-		} catch (EventParseException e) {
-			logger.log(Level.SEVERE, "Failed to parse message: " + e.getMessage(), e);
-			this.client.shutdown();
+				if (header != null) {
+					metrics.commitToHandleMillis.record(System.currentTimeMillis() - header.getCommitTimestamp());
+				}
+			} else {
+				metrics.filtered.increment();
+			}
+		} catch (Exception e) {
+			metrics.failed.increment();
+			supervisor.onFatalError(this, e);
+			return;
 		}
+		saveCheckpoint(replayTracker.complete(slot));
+		// Release credits for the processed event and request more if needed. Workers process events in parallel,
+		// so the time a batch takes is the time an event takes divided by the number of workers.
+		flowController.onProcessed(1, (System.nanoTime() - processingStart) / pipeline.getParallelism());
+		supervisor.onProcessed(this, 1);
 	}
 
 	@Override
 	public void onError(Throwable t) {
-		logger.log(Level.SEVERE, "Subscribe/receive error: " + t.getMessage(), t);
+		flowController.close();
+		supervisor.onStreamError(this, t);
 	}
 
 	@Override
 	public void onCompleted() {
-		logger.info("Done receiving events.");
-		this.client.shutdown();
+		flowController.close();
+		supervisor.onStreamCompleted(this);
+	}
+
+	/**
+	 * Cancels the subscribe stream
+	 *
+	 * @param message
+	 */
+	public void cancel(String message) {
+		if (requestStream != null) {
+			requestStream.cancel(message, null);
+		}
+	}
+
+	/**
+	 * @return current size of the credit window
+	 */
+	public int getBatchSize() {
+		return flowController != null ? flowController.getBatchSize() : flowControlSettings.getInitialBatchSize();
 	}
 
 	@Override
 	public void beforeStart(ClientCallStreamObserver<FetchRequest> requestStream) {
+		this.requestStream = requestStream;
+		flowController = new FlowController(requestStream, initialRequest, eventCoundRequested,
+				flowControlSettings, pipeline);
 		requestStream.setOnReadyHandler(new Runnable() {
 			@Override
 			public void run() {
-				FetchRequest request = FetchRequest.newBuilder().setNumRequested(eventCoundRequested)
-						.setTopicName(topicName).build();
-				requestStream.onNext(request);
+				flowController.onReady();
 			}
 		});
 	}
+
+	private void saveCheckpoint(ByteString replayId) {
+		// Streams share the replay tracker: events of a previous stream that complete after a reconnect move the
+		// checkpoint too
+		if (replayId != null) {
+			checkpointStore.save(topicName, replayId);
+		}
+	}
 }
@@ -0,0 +1,69 @@
+package org.salesforce.demo;
+
+import java.util.ArrayDeque;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Tracks the completion of events that are processed out of order to find the replay ID that is safe to resume
+ * from: the replay ID of the last event before which every event was processed.
+ */
+class ReplayTracker {
+	private final ArrayDeque<Slot> inFlight = new ArrayDeque<>();
+	private ByteString lastRegistered;
+
+	/**
+	 * Registers an event in delivery order
+	 * 
+	 * @param replayId
+	 * @return slot to complete once the event is processed
+	 */
+	synchronized Slot register(ByteString replayId) {
+		Slot slot = new Slot(replayId);
+		inFlight.addLast(slot);
+		lastRegistered = replayId;
+		return slot;
+	}
+
+	/**
+	 * @return replay ID of the last registered event, processed or not, or null if none was registered
+	 */
+	synchronized ByteString getLastRegistered() {
+		return lastRegistered;
+	}
+
+	/**
+	 * Registers a replay ID that doesn't need processing, such as the latest replay ID of a keep-alive response
+	 * 
+	 * @param replayId
+	 * @return new safe replay ID or null if it didn't change
+	 */
+	synchronized ByteString registerProcessed(ByteString replayId) {
+		Slot slot = register(replayId);
+		return complete(slot);
+	}
+
+	/**
+	 * Marks an event as processed
+	 * 
+	 * @param slot
+	 * @return new safe replay ID or null if it didn't change
+	 */
+	synchronized ByteString complete(Slot slot) {
+		slot.done = true;
+		ByteString safeReplayId = null;
+		while (!inFlight.isEmpty() && inFlight.peekFirst().done) {
+			safeReplayId = inFlight.pollFirst().replayId;
+		}
+		return safeReplayId;
+	}
+
+	static class Slot {
+		private final ByteString replayId;
+		private boolean done = false;
+
+		private Slot(ByteString replayId) {
+			this.replayId = replayId;
+		}
+	}
+}
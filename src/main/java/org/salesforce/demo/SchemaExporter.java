@@ -0,0 +1,47 @@
+package org.salesforce.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.avro.Schema;
+import org.salesforce.demo.utils.Config;
+
+/**
+ * Saves the current schema of topics as Avro schema files so that typed classes can be generated from them at build
+ * time. Run it, then rebuild the project: events whose schema matches a generated class are decoded into instances
+ * of that class.
+ * <p>
+ * Usage: {@code SchemaExporter [outputDirectory] [topicName...]}. The output directory defaults to
+ * {@code src/main/avro} and the topics default to the configured ones.
+ */
+public class SchemaExporter {
+	private static final Logger logger = Logger.getLogger(SchemaExporter.class.getName());
+
+	public static void main(String[] args) throws Exception {
+		Config config = Config.get();
+		Path outputDirectory = Paths.get(args.length > 0 ? args[0] : "src/main/avro");
+		List<String> topicNames = args.length > 1 ? Arrays.asList(args).subList(1, args.length)
+				: config.getPubSubTopicNames();
+		PubSubApiClient client = new PubSubApiClient();
+		try {
+			client.connect(config);
+			Files.createDirectories(outputDirectory);
+			for (String topicName : topicNames) {
+				Schema schema = client.retrieveTopicSchema(topicName);
+				Path file = outputDirectory.resolve(schema.getName() + ".avsc");
+				Files.write(file, schema.toString(true).getBytes(StandardCharsets.UTF_8));
+				logger.info("Saved schema of " + topicName + " to " + file);
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		} finally {
+			client.disconnect();
+		}
+	}
+}
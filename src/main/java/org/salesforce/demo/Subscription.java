@@ -0,0 +1,42 @@
+package org.salesforce.demo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle on a running topic subscription
+ */
+public interface Subscription {
+
+	String getTopicName();
+
+	/**
+	 * Stops the subscription right away. The completion future completes normally.
+	 * Events that were received but not handled yet are dropped: the handler is no longer called, except for the
+	 * events it is handling at the time of the call.
+	 */
+	void cancel();
+
+	/**
+	 * @return future that completes normally once the event limit is reached or the subscription is cancelled, and
+	 *         exceptionally when the subscription fails for good
+	 */
+	CompletableFuture<Void> getCompletion();
+
+	/**
+	 * Waits for the subscription to be over, whether it succeeded or not
+	 * 
+	 * @throws InterruptedException
+	 */
+	void awaitTermination() throws InterruptedException;
+
+	/**
+	 * Waits for the subscription to be over, whether it succeeded or not
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return false if the subscription is still running after the timeout
+	 * @throws InterruptedException
+	 */
+	boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+}
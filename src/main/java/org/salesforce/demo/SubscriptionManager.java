@@ -0,0 +1,182 @@
+package org.salesforce.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.salesforce.demo.auth.SessionManager;
+import org.salesforce.demo.checkpoint.CheckpointStore;
+import org.salesforce.demo.events.EventFilter;
+import org.salesforce.demo.events.EventParser;
+import org.salesforce.demo.events.FieldProjection;
+import org.salesforce.demo.metrics.MetricsRegistry;
+
+import com.salesforce.eventbus.protobuf.PubSubGrpc;
+import com.salesforce.eventbus.protobuf.ReplayPreset;
+
+/**
+ * Runs any number of topic subscriptions over a shared pool of channels.
+ * Subscribe streams are multiplexed on the channels of the pool in a round-robin fashion. Each topic gets its own
+ * supervisor, observer and credit window while the schema cache and checkpoint store are shared and keyed by schema
+ * ID and topic name respectively. Topics can be added and removed at any time.
+ */
+public class SubscriptionManager {
+	private static final Logger logger = Logger.getLogger(SubscriptionManager.class.getName());
+
+	private final List<PubSubGrpc.PubSubStub> stubs;
+	private final EventParser parser;
+	private final EventPipeline pipeline;
+	private final CheckpointStore checkpointStore;
+	private final ReplayPreset replayPreset;
+	private final FlowController.Settings flowControlSettings;
+	private final SubscriptionSupervisor.ReconnectSettings reconnectSettings;
+	private final ScheduledExecutorService scheduler;
+	private final MetricsRegistry metrics;
+	private final EventTracer tracer;
+	private final SessionManager sessionManager;
+	private final Map<String, SubscriptionSupervisor> subscriptions = new ConcurrentHashMap<>();
+	private final AtomicInteger nextStub = new AtomicInteger();
+
+	public SubscriptionManager(List<PubSubGrpc.PubSubStub> stubs, EventParser parser, EventPipeline pipeline,
+			CheckpointStore checkpointStore, ReplayPreset replayPreset, FlowController.Settings flowControlSettings,
+			SubscriptionSupervisor.ReconnectSettings reconnectSettings, ScheduledExecutorService scheduler,
+			MetricsRegistry metrics, EventTracer tracer) {
+		this(stubs, parser, pipeline, checkpointStore, replayPreset, flowControlSettings, reconnectSettings, scheduler,
+				metrics, tracer, null);
+	}
+
+	/**
+	 * @param sessionManager renews the session the stubs authenticate with, null if the client doesn't manage it
+	 */
+	public SubscriptionManager(List<PubSubGrpc.PubSubStub> stubs, EventParser parser, EventPipeline pipeline,
+			CheckpointStore checkpointStore, ReplayPreset replayPreset, FlowController.Settings flowControlSettings,
+			SubscriptionSupervisor.ReconnectSettings reconnectSettings, ScheduledExecutorService scheduler,
+			MetricsRegistry metrics, EventTracer tracer, SessionManager sessionManager) {
+		this.stubs = stubs;
+		this.parser = parser;
+		this.pipeline = pipeline;
+		this.checkpointStore = checkpointStore;
+		this.replayPreset = replayPreset;
+		this.flowControlSettings = flowControlSettings;
+		this.reconnectSettings = reconnectSettings;
+		this.scheduler = scheduler;
+		this.metrics = metrics;
+		this.tracer = tracer;
+		this.sessionManager = sessionManager;
+	}
+
+	/**
+	 * Starts a subscription that logs events without blocking
+	 *
+	 * @param topicName
+	 * @param eventLimit total number of events to receive, zero or less for no limit
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, long eventLimit) {
+		return subscribe(topicName, eventLimit, new LoggingEventHandler());
+	}
+
+	/**
+	 * Starts a subscription without blocking
+	 *
+	 * @param topicName
+	 * @param eventLimit total number of events to receive, zero or less for no limit
+	 * @param handler    processes the events of the subscription
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, long eventLimit, EventHandler handler) {
+		return subscribe(topicName, eventLimit, handler, EventFilter.all());
+	}
+
+	/**
+	 * Starts a subscription without blocking
+	 *
+	 * @param topicName
+	 * @param eventLimit total number of events to receive, zero or less for no limit
+	 * @param handler    processes the events of the subscription
+	 * @param filter     events that are passed to the handler, the others are skipped without being fully decoded
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, long eventLimit, EventHandler handler, EventFilter filter) {
+		return subscribe(topicName, eventLimit, handler, filter, null);
+	}
+
+	/**
+	 * Starts a subscription without blocking
+	 *
+	 * @param topicName
+	 * @param eventLimit total number of events to receive, zero or less for no limit
+	 * @param handler    processes the events of the subscription
+	 * @param filter     events that are passed to the handler, the others are skipped without being fully decoded
+	 * @param projection fields of the events that are decoded or null to decode all fields
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, long eventLimit, EventHandler handler, EventFilter filter,
+			FieldProjection projection) {
+		PubSubGrpc.PubSubStub stub = stubs.get(Math.floorMod(nextStub.getAndIncrement(), stubs.size()));
+		SubscriptionSupervisor supervisor = new SubscriptionSupervisor(this, stub, topicName,
+				parser.withProjection(projection), handler, filter, pipeline, checkpointStore, replayPreset, eventLimit,
+				flowControlSettings, reconnectSettings, scheduler, new SubscriptionMetrics(metrics, topicName),
+				tracer, sessionManager);
+		if (subscriptions.putIfAbsent(topicName, supervisor) != null) {
+			throw new IllegalStateException("Already subscribed to " + topicName);
+		}
+		logger.info("PubSub API: subscribing to " + topicName
+				+ (eventLimit > 0 ? " and waiting for " + eventLimit + " events..." : "..."));
+		supervisor.start();
+		return supervisor;
+	}
+
+	/**
+	 * Stops a subscription
+	 *
+	 * @param topicName
+	 * @return false if there was no subscription to the topic
+	 */
+	public boolean unsubscribe(String topicName) {
+		SubscriptionSupervisor supervisor = subscriptions.remove(topicName);
+		if (supervisor == null) {
+			return false;
+		}
+		logger.info("PubSub API: unsubscribing from " + topicName + "...");
+		supervisor.cancel();
+		return true;
+	}
+
+	/**
+	 * @return names of the subscribed topics
+	 */
+	public List<String> getTopicNames() {
+		return new ArrayList<>(subscriptions.keySet());
+	}
+
+	/**
+	 * @param topicName
+	 * @return subscription to the topic or null if there is none
+	 */
+	public Subscription getSubscription(String topicName) {
+		return subscriptions.get(topicName);
+	}
+
+	/**
+	 * Stops all subscriptions
+	 */
+	public void stopAll() {
+		for (String topicName : getTopicNames()) {
+			unsubscribe(topicName);
+		}
+	}
+
+	/**
+	 * Called by a supervisor once its subscription is over
+	 *
+	 * @param supervisor
+	 */
+	void onTerminated(SubscriptionSupervisor supervisor) {
+		subscriptions.remove(supervisor.getTopicName(), supervisor);
+	}
+}
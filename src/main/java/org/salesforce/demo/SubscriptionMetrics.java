@@ -0,0 +1,35 @@
+package org.salesforce.demo;
+
+import org.salesforce.demo.metrics.Counter;
+import org.salesforce.demo.metrics.Histogram;
+import org.salesforce.demo.metrics.MetricsRegistry;
+
+/**
+ * Metrics of a topic subscription, tagged with the topic name. Streams reopened after a reconnect keep updating the
+ * same metrics.
+ */
+public class SubscriptionMetrics {
+	final Counter received;
+	final Counter decoded;
+	final Counter filtered;
+	final Counter failed;
+	final Counter dropped;
+	final Histogram fetchBatchSize;
+	final Histogram pendingRequested;
+	final Histogram decodeMicros;
+	final Histogram handleMicros;
+	final Histogram commitToHandleMillis;
+
+	public SubscriptionMetrics(MetricsRegistry metrics, String topicName) {
+		received = metrics.counter("subscribe.events.received", "topic", topicName);
+		decoded = metrics.counter("subscribe.events.decoded", "topic", topicName);
+		filtered = metrics.counter("subscribe.events.filtered", "topic", topicName);
+		failed = metrics.counter("subscribe.events.failed", "topic", topicName);
+		dropped = metrics.counter("subscribe.events.dropped", "topic", topicName);
+		fetchBatchSize = metrics.histogram("subscribe.fetch.batchSize", "topic", topicName);
+		pendingRequested = metrics.histogram("subscribe.fetch.pendingRequested", "topic", topicName);
+		decodeMicros = metrics.histogram("subscribe.decodeMicros", "topic", topicName);
+		handleMicros = metrics.histogram("subscribe.handleMicros", "topic", topicName);
+		commitToHandleMillis = metrics.histogram("subscribe.commitToHandleMillis", "topic", topicName);
+	}
+}
@@ -0,0 +1,394 @@
+package org.salesforce.demo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.salesforce.demo.auth.SalesforceSession;
+import org.salesforce.demo.auth.SessionManager;
+import org.salesforce.demo.checkpoint.CheckpointStore;
+import org.salesforce.demo.events.EventFilter;
+import org.salesforce.demo.events.EventParser;
+import org.salesforce.demo.events.ReplayId;
+
+import com.google.protobuf.ByteString;
+import com.salesforce.eventbus.protobuf.FetchRequest;
+import com.salesforce.eventbus.protobuf.PubSubGrpc;
+import com.salesforce.eventbus.protobuf.ReplayPreset;
+
+import io.grpc.Status;
+
+/**
+ * Keeps a subscription alive across subscribe streams.
+ * When a stream fails with a retryable status or is closed by the server before the event limit is reached, a new
+ * stream is opened after an exponential backoff with full jitter. Events handed off by the previous stream are still
+ * processed, so the new stream resumes after the last of them, or after the last checkpoint when the subscription
+ * starts. It requests the events that were not delivered yet, keeping the window size the flow controller had
+ * reached. Streams share a replay tracker so that the checkpoint only moves past events processed by any stream.
+ * A stream rejected as unauthenticated is reopened once the session manager has renewed the session, but not when the
+ * renewed session is rejected too before any response: such a session won't be accepted by retrying.
+ */
+public class SubscriptionSupervisor implements Subscription {
+	private static final Logger logger = Logger.getLogger(SubscriptionSupervisor.class.getName());
+
+	private final SubscriptionManager manager;
+	private final PubSubGrpc.PubSubStub stub;
+	private final String topicName;
+	private final EventParser parser;
+	private final EventHandler handler;
+	private final EventFilter filter;
+	private final EventPipeline pipeline;
+	private final CheckpointStore checkpointStore;
+	private final ReplayPreset replayPreset;
+	private final long eventLimit;
+	private final FlowController.Settings flowControlSettings;
+	private final ReconnectSettings reconnectSettings;
+	private final ScheduledExecutorService scheduler;
+	private final SubscriptionMetrics metrics;
+	private final EventTracer tracer;
+	private final SessionManager sessionManager;
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+	private final ReplayTracker replayTracker = new ReplayTracker();
+
+	private PubSubEventObserver current;
+	private ScheduledFuture<?> pendingReconnect;
+	private CompletableFuture<?> pendingRenewal;
+	private SalesforceSession streamSession;
+	private SalesforceSession renewedSession;
+	private long deliveredTotal = 0;
+	private long processedTotal = 0;
+	private int batchSize;
+	private int attempt = 0;
+	private volatile boolean stopped = false;
+
+	public SubscriptionSupervisor(SubscriptionManager manager, PubSubGrpc.PubSubStub stub, String topicName,
+			EventParser parser, EventHandler handler, EventFilter filter, EventPipeline pipeline,
+			CheckpointStore checkpointStore, ReplayPreset replayPreset, long eventLimit,
+			FlowController.Settings flowControlSettings, ReconnectSettings reconnectSettings,
+			ScheduledExecutorService scheduler, SubscriptionMetrics metrics, EventTracer tracer,
+			SessionManager sessionManager) {
+		this.manager = manager;
+		this.stub = stub;
+		this.topicName = topicName;
+		this.parser = parser;
+		this.handler = handler;
+		this.filter = filter;
+		this.pipeline = pipeline;
+		this.checkpointStore = checkpointStore;
+		this.replayPreset = replayPreset;
+		this.eventLimit = eventLimit;
+		this.flowControlSettings = flowControlSettings;
+		this.reconnectSettings = reconnectSettings;
+		this.scheduler = scheduler;
+		this.metrics = metrics;
+		this.tracer = tracer;
+		this.sessionManager = sessionManager;
+		this.batchSize = flowControlSettings.getInitialBatchSize();
+	}
+
+	public synchronized void start() {
+		open();
+	}
+
+	@Override
+	public void cancel() {
+		terminate(null);
+	}
+
+	@Override
+	public CompletableFuture<Void> getCompletion() {
+		return completion;
+	}
+
+	@Override
+	public void awaitTermination() throws InterruptedException {
+		try {
+			completion.get();
+		} catch (ExecutionException e) {
+			// Failures are reported through the completion future
+		}
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		try {
+			completion.get(timeout, unit);
+		} catch (ExecutionException e) {
+			// Failures are reported through the completion future
+		} catch (TimeoutException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Cancels the current stream and any pending reconnect
+	 */
+	private synchronized void stop() {
+		stopped = true;
+		if (pendingReconnect != null) {
+			pendingReconnect.cancel(false);
+		}
+		if (pendingRenewal != null) {
+			pendingRenewal.cancel(false);
+		}
+		if (current != null) {
+			current.cancel("Subscription stopped");
+		}
+	}
+
+	/**
+	 * @return whether the subscription was cancelled, failed or reached its event limit
+	 */
+	boolean isStopped() {
+		return stopped;
+	}
+
+	@Override
+	public String getTopicName() {
+		return topicName;
+	}
+
+	synchronized void onResponse(PubSubEventObserver observer) {
+		if (observer == current) {
+			// The stream is healthy again
+			attempt = 0;
+			renewedSession = null;
+		}
+	}
+
+	synchronized void onDelivered(PubSubEventObserver observer, int eventCount) {
+		deliveredTotal += eventCount;
+	}
+
+	synchronized void onProcessed(PubSubEventObserver observer, int eventCount) {
+		processedTotal += eventCount;
+		if (stopped || eventLimit <= 0 || processedTotal < eventLimit) {
+			return;
+		}
+		logger.info("Received the requested number of events on " + topicName + ".");
+		terminate(null);
+	}
+
+	synchronized void onFatalError(PubSubEventObserver observer, Throwable t) {
+		if (stopped) {
+			return;
+		}
+		logger.log(Level.SEVERE, "Stopping subscription to " + topicName + ": " + t.getMessage(), t);
+		terminate(t);
+	}
+
+	synchronized void onStreamError(PubSubEventObserver observer, Throwable t) {
+		if (stopped || observer != current) {
+			return;
+		}
+		if (isFullyDelivered()) {
+			logger.fine("Subscribe stream on " + topicName + " failed after delivering every requested event: "
+					+ t.getMessage());
+			return;
+		}
+		Status status = Status.fromThrowable(t);
+		if (status.getCode() == Status.Code.UNAUTHENTICATED) {
+			onSessionRejected(t);
+		} else if (!isRetryable(status)) {
+			logger.log(Level.SEVERE, "Subscribe/receive error on " + topicName + ", not retrying: " + t.getMessage(),
+					t);
+			terminate(t);
+		} else if (reconnectSettings.isExhausted(attempt)) {
+			logger.log(Level.SEVERE, "Subscribe/receive error on " + topicName + ", giving up after " + attempt
+					+ " reconnect attempts: " + t.getMessage(), t);
+			terminate(t);
+		} else {
+			logger.warning("Subscribe/receive error on " + topicName + ": " + status.getCode() + " "
+					+ status.getDescription());
+			scheduleReconnect();
+		}
+	}
+
+	synchronized void onStreamCompleted(PubSubEventObserver observer) {
+		if (stopped || observer != current) {
+			return;
+		}
+		if (isFullyDelivered()) {
+			return;
+		}
+		// The server closed the stream before we received everything we wanted
+		logger.info("Subscribe stream on " + topicName + " closed by the server.");
+		scheduleReconnect();
+	}
+
+	/**
+	 * Once every requested event was delivered, no stream is needed anymore: the subscription ends when
+	 * {@link #onProcessed} counts the last of them
+	 */
+	private boolean isFullyDelivered() {
+		return eventLimit > 0 && deliveredTotal >= eventLimit;
+	}
+
+	/**
+	 * The rejection triggers a renewal of the session in the background, the next stream is opened once it completes
+	 * 
+	 * @param t failure of the stream
+	 */
+	private void onSessionRejected(Throwable t) {
+		// Streams opened before the first login carry the session it opened
+		SalesforceSession rejected = streamSession != null || sessionManager == null ? streamSession
+				: sessionManager.getCachedSession();
+		if (rejected == null) {
+			// The session isn't renewed by this client, or the login failed
+			logger.log(Level.SEVERE, "Subscribe/receive error on " + topicName + ", session rejected, not retrying: "
+					+ t.getMessage(), t);
+			terminate(t);
+			return;
+		}
+		if (rejected == renewedSession) {
+			logger.log(Level.SEVERE, "Subscribe/receive error on " + topicName
+					+ ", renewed session rejected too, not retrying: " + t.getMessage(), t);
+			terminate(t);
+			return;
+		}
+		logger.warning("Subscribe/receive error on " + topicName + ", session rejected, reconnecting once renewed");
+		batchSize = current.getBatchSize();
+		// The renewal completes on the thread of the session manager, whose lock must not be held while taking ours
+		pendingRenewal = sessionManager.awaitRenewal(rejected).whenCompleteAsync((renewed, e) -> {
+			synchronized (SubscriptionSupervisor.this) {
+				if (stopped) {
+					return;
+				}
+				if (e != null) {
+					terminate(e);
+					return;
+				}
+				renewedSession = renewed;
+				open();
+			}
+		}, scheduler);
+	}
+
+	private void scheduleReconnect() {
+		batchSize = current.getBatchSize();
+		long delay = reconnectSettings.nextBackoffMillis(attempt);
+		attempt++;
+		logger.info("Reconnecting to " + topicName + " in " + delay + " ms (attempt " + attempt + ")...");
+		pendingReconnect = scheduler.schedule(() -> {
+			synchronized (SubscriptionSupervisor.this) {
+				if (!stopped) {
+					open();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void open() {
+		long remaining = 0;
+		if (eventLimit > 0) {
+			// Events delivered by a previous stream are processed even if it failed
+			remaining = eventLimit - deliveredTotal;
+		}
+		current = new PubSubEventObserver(this, buildInitialRequest(), parser, handler, filter, pipeline, remaining,
+				flowControlSettings.withInitialBatchSize(batchSize), checkpointStore, replayTracker, metrics,
+				tracer);
+		streamSession = sessionManager == null ? null : sessionManager.getCachedSession();
+		stub.subscribe(current);
+	}
+
+	/**
+	 * Prepares the first request of a stream. The stream resumes after the last event handed off by a previous
+	 * stream, otherwise after the last checkpoint of the topic if there is one, otherwise it starts from the
+	 * configured replay preset.
+	 */
+	private FetchRequest buildInitialRequest() {
+		FetchRequest.Builder builder = FetchRequest.newBuilder().setTopicName(topicName);
+		ByteString replayId = replayTracker.getLastRegistered();
+		if (replayId == null) {
+			replayId = checkpointStore.getReplayId(topicName);
+		}
+		if (replayId != null) {
+			logger.info("PubSub API: resuming " + topicName + " after replay ID " + ReplayId.toLong(replayId));
+			builder.setReplayPreset(ReplayPreset.CUSTOM).setReplayId(replayId);
+		} else {
+			builder.setReplayPreset(replayPreset);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Stops the subscription and signals its completion
+	 * 
+	 * @param failure cause of the termination or null if the subscription ended normally
+	 */
+	private void terminate(Throwable failure) {
+		stop();
+		manager.onTerminated(this);
+		if (failure == null) {
+			completion.complete(null);
+		} else {
+			completion.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * @param status
+	 * @return whether the status denotes a transient failure that is worth reconnecting for
+	 */
+	static boolean isRetryable(Status status) {
+		switch (status.getCode()) {
+		case UNAVAILABLE:
+		case DEADLINE_EXCEEDED:
+		case RESOURCE_EXHAUSTED:
+		case ABORTED:
+		case INTERNAL:
+		case UNKNOWN:
+		case CANCELLED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Reconnection settings
+	 */
+	public static class ReconnectSettings {
+		private final long initialBackoffMillis;
+		private final long maxBackoffMillis;
+		private final int maxAttempts;
+
+		/**
+		 * @param initialBackoffMillis upper bound of the first reconnect delay
+		 * @param maxBackoffMillis     upper bound of any reconnect delay
+		 * @param maxAttempts          consecutive failed attempts before giving up, zero or less to never give up
+		 */
+		public ReconnectSettings(long initialBackoffMillis, long maxBackoffMillis, int maxAttempts) {
+			this.initialBackoffMillis = Math.max(1, initialBackoffMillis);
+			this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+			this.maxAttempts = maxAttempts;
+		}
+
+		/**
+		 * Exponential backoff with full jitter: a random delay between zero and the capped exponential delay
+		 * 
+		 * @param attempt number of failed attempts so far
+		 * @return delay before the next attempt
+		 */
+		long nextBackoffMillis(int attempt) {
+			long ceiling = initialBackoffMillis << Math.min(attempt, 20);
+			ceiling = Math.min(ceiling, maxBackoffMillis);
+			return ThreadLocalRandom.current().nextLong(ceiling + 1);
+		}
+
+		/**
+		 * @param attempt number of failed attempts so far
+		 * @return whether no attempt is left
+		 */
+		boolean isExhausted(int attempt) {
+			return maxAttempts > 0 && attempt >= maxAttempts;
+		}
+	}
+}
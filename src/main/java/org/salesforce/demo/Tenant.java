@@ -0,0 +1,308 @@
+package org.salesforce.demo;
+
+import io.grpc.ManagedChannel;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.AbstractStub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.avro.Schema;
+import org.salesforce.demo.PubSubApiClient.PubSubException;
+import org.salesforce.demo.auth.SessionCallCredentials;
+import org.salesforce.demo.auth.SessionManager;
+import org.salesforce.demo.checkpoint.CheckpointStore;
+import org.salesforce.demo.events.EventFilter;
+import org.salesforce.demo.events.EventParser;
+import org.salesforce.demo.events.EventSerializer;
+import org.salesforce.demo.events.FieldProjection;
+import org.salesforce.demo.events.SchemaCache;
+import org.salesforce.demo.events.SchemaCache.SchemaResolutionException;
+import org.salesforce.demo.metrics.MetricsRegistry;
+import org.salesforce.demo.utils.Config;
+
+import com.salesforce.eventbus.protobuf.PubSubGrpc;
+import com.salesforce.eventbus.protobuf.SchemaInfo;
+import com.salesforce.eventbus.protobuf.SchemaRequest;
+import com.salesforce.eventbus.protobuf.TopicInfo;
+import com.salesforce.eventbus.protobuf.TopicRequest;
+
+/**
+ * An org served by a {@link PubSubApiClient}: its session, the stubs whose calls carry its credentials, its schema
+ * cache, and the subscriptions and publishers it runs. The channels, workers, scheduler and checkpoint store belong to
+ * the client, which passes the tenant its share of them: its checkpoint namespace and its metrics tags.
+ */
+public class Tenant {
+	private static final Logger logger = Logger.getLogger(Tenant.class.getName());
+
+	private final String tenantId;
+	private final SessionManager sessionManager;
+	private final boolean ownsSessionManager;
+	private final ExecutorService channelExecutor;
+	private final List<PubSubGrpc.PubSubStub> stubs = new ArrayList<>();
+	private final PubSubGrpc.PubSubBlockingStub blockingStub;
+	private final SchemaCache schemaCache;
+	private final SubscriptionManager subscriptionManager;
+	private final EventSerializer serializer;
+	private final EventPublisher.Settings publishSettings;
+	private final SubscriptionSupervisor.ReconnectSettings reconnectSettings;
+	private final ScheduledExecutorService scheduler;
+	private final MetricsRegistry metrics;
+	private final List<EventPublisher> publishers = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param tenantId           key of the tenant, null when the client connected over existing channels
+	 * @param sessionManager     sessions of the tenant, null when the channels authenticate the calls
+	 * @param ownsSessionManager whether the session manager is closed along with the tenant
+	 * @param config
+	 * @param channels           channels of the client that subscriptions and publishers are spread over
+	 * @param channelExecutor    executor of the channels, null when they use gRPC's thread pool
+	 * @param scheduler          scheduler of the client
+	 * @param pipeline           workers of the client
+	 * @param tracer             tracer of the client
+	 * @param checkpointStore    checkpoints of the tenant
+	 * @param metrics            metrics of the tenant
+	 */
+	Tenant(String tenantId, SessionManager sessionManager, boolean ownsSessionManager, Config config,
+			List<ManagedChannel> channels, ExecutorService channelExecutor, ScheduledExecutorService scheduler,
+			EventPipeline pipeline, EventTracer tracer, CheckpointStore checkpointStore, MetricsRegistry metrics) {
+		this.tenantId = tenantId;
+		this.sessionManager = sessionManager;
+		this.ownsSessionManager = ownsSessionManager;
+		this.channelExecutor = channelExecutor;
+		this.scheduler = scheduler;
+		this.metrics = metrics;
+		// The auth information of the current session is attached to each call rather than to the channels, which
+		// other tenants may share
+		SessionCallCredentials credentials = sessionManager == null ? null
+				: new SessionCallCredentials(tenantId, sessionManager);
+		for (ManagedChannel channel : channels) {
+			// We use a non-blocking stub for subscribe request and async event handling
+			stubs.add(attachCredentials(PubSubGrpc.newStub(channel), credentials));
+		}
+		// We use a blocking stub for getTopic and getSchema requests (less code
+		// required)
+		blockingStub = attachCredentials(PubSubGrpc.newBlockingStub(channels.get(0)), credentials);
+		// Schemas are loaded on demand and shared by all subscriptions of the tenant
+		// Loads started from the gRPC callback threads run on the channel executor or the scheduler
+		schemaCache = new SchemaCache(this::fetchSchema, config.getSchemaCacheMaxSize(),
+				config.getSchemaCacheTtlMinutes(), metrics, channelExecutor != null ? channelExecutor : scheduler);
+
+		FlowController.Settings flowControlSettings = new FlowController.Settings(
+				config.getFlowControlInitialBatchSize(), config.getFlowControlMinBatchSize(),
+				config.getFlowControlMaxBatchSize(), config.getFlowControlLowWaterMark(),
+				config.getFlowControlTargetBatchMillis());
+		reconnectSettings = new SubscriptionSupervisor.ReconnectSettings(config.getReconnectInitialBackoffMillis(),
+				config.getReconnectMaxBackoffMillis(), config.getReconnectMaxAttempts());
+		EventParser parser = new EventParser(schemaCache, config.isParserReuseRecords());
+		subscriptionManager = new SubscriptionManager(stubs, parser, pipeline, checkpointStore,
+				config.getReplayPreset(), flowControlSettings, reconnectSettings, scheduler, metrics, tracer,
+				sessionManager);
+		serializer = new EventSerializer(schemaCache);
+		publishSettings = new EventPublisher.Settings(config.getPublishMaxBatchEvents(),
+				config.getPublishMaxBatchBytes(), config.getPublishLingerMillis(),
+				config.getPublishMaxInFlightBatches());
+	}
+
+	private static <T extends AbstractStub<T>> T attachCredentials(T stub, SessionCallCredentials credentials) {
+		return credentials == null ? stub : credentials.attachTo(stub);
+	}
+
+	/**
+	 * @return key of the tenant, the org ID when the client logged in, null when it connected over existing channels
+	 */
+	public String getTenantId() {
+		return tenantId;
+	}
+
+	/**
+	 * @return sessions of the tenant, null when the channels authenticate the calls
+	 */
+	public SessionManager getSessionManager() {
+		return sessionManager;
+	}
+
+	private TopicInfo retrieveTopic(String topicName) throws PubSubException {
+		logger.info("PubSub API: retrieving topic " + topicName + "...");
+		TopicRequest request = TopicRequest.newBuilder().setTopicName(topicName).build();
+		try {
+			return blockingStub.getTopic(request);
+		} catch (StatusRuntimeException e) {
+			throw new PubSubException("Failed to retrieve topic " + topicName + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Retrieves the current schema of a topic and adds it to the schema cache
+	 *
+	 * @param topicName
+	 * @return topic schema
+	 * @throws PubSubException
+	 */
+	public Schema retrieveTopicSchema(String topicName) throws PubSubException {
+		TopicInfo topic = retrieveTopic(topicName);
+		logger.info("PubSub API: retrieving schema for topic " + topicName + "...");
+		try {
+			return schemaCache.get(topic.getSchemaId()).getSchema();
+		} catch (SchemaResolutionException e) {
+			throw new PubSubException(
+					"Failed to retrieve schema for topic " + topic.getTopicName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Retrieves the current schema of several topics and adds them to the schema cache. With virtual threads, each
+	 * topic is retrieved concurrently on its own thread.
+	 *
+	 * @param topicNames
+	 * @throws PubSubException
+	 */
+	public void retrieveTopicSchemas(List<String> topicNames) throws PubSubException {
+		if (channelExecutor == null) {
+			for (String topicName : topicNames) {
+				retrieveTopicSchema(topicName);
+			}
+			return;
+		}
+		List<Future<Schema>> schemas = new ArrayList<>();
+		for (String topicName : topicNames) {
+			schemas.add(channelExecutor.submit(() -> retrieveTopicSchema(topicName)));
+		}
+		try {
+			for (Future<Schema> schema : schemas) {
+				schema.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof PubSubException) {
+				throw (PubSubException) e.getCause();
+			}
+			throw new PubSubException("Failed to retrieve topic schemas: " + e.getCause().getMessage(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PubSubException("Interrupted while retrieving topic schemas", e);
+		}
+	}
+
+	private Schema fetchSchema(String schemaId) throws StatusRuntimeException {
+		SchemaRequest request = SchemaRequest.newBuilder().setSchemaId(schemaId).build();
+		SchemaInfo response = blockingStub.getSchema(request);
+		return new Schema.Parser().parse(response.getSchemaJson());
+	}
+
+	/**
+	 * Opens a publisher for a topic. Records are serialized with the current schema of the topic.
+	 *
+	 * @param topicName
+	 * @return publisher, closed along with the tenant
+	 * @throws PubSubException if the topic can't be retrieved or doesn't allow publishing
+	 */
+	public EventPublisher createPublisher(String topicName) throws PubSubException {
+		TopicInfo topic = retrieveTopic(topicName);
+		if (!topic.getCanPublish()) {
+			throw new PubSubException("Publishing is not allowed on topic " + topicName, null);
+		}
+		// Pipelined publish streams are spread over the channel pool like subscriptions
+		PubSubGrpc.PubSubStub stub = stubs.get(Math.floorMod(publishers.size(), stubs.size()));
+		EventPublisher publisher = new EventPublisher(stub, topicName, topic.getSchemaId(), serializer,
+				publishSettings, reconnectSettings, scheduler, metrics);
+		publishers.add(publisher);
+		return publisher;
+	}
+
+	/**
+	 * @return manager used to add and remove topic subscriptions at runtime
+	 */
+	public SubscriptionManager getSubscriptionManager() {
+		return subscriptionManager;
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 *
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested) {
+		return subscriptionManager.subscribe(topicName, eventCountRequested);
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 *
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @param handler             processes the events of the subscription
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested, EventHandler handler) {
+		return subscriptionManager.subscribe(topicName, eventCountRequested, handler);
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 *
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @param handler             processes the events of the subscription
+	 * @param filter              events that are passed to the handler
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested, EventHandler handler,
+			EventFilter filter) {
+		return subscriptionManager.subscribe(topicName, eventCountRequested, handler, filter);
+	}
+
+	/**
+	 * Subscribes to a topic without blocking
+	 *
+	 * @param topicName
+	 * @param eventCountRequested total number of events to receive, zero or less for no limit
+	 * @param handler             processes the events of the subscription
+	 * @param filter              events that are passed to the handler
+	 * @param projection          fields of the events that are decoded or null to decode all fields
+	 * @return subscription handle
+	 */
+	public Subscription subscribe(String topicName, int eventCountRequested, EventHandler handler,
+			EventFilter filter, FieldProjection projection) {
+		return subscriptionManager.subscribe(topicName, eventCountRequested, handler, filter, projection);
+	}
+
+	/**
+	 * Stops all subscriptions of the tenant
+	 */
+	public void shutdown() {
+		subscriptionManager.stopAll();
+	}
+
+	/**
+	 * Stops the subscriptions and publishers of the tenant and closes its session if it owns it. The resources shared
+	 * with the client stay open.
+	 */
+	void close() {
+		shutdown();
+		for (EventPublisher publisher : publishers) {
+			try {
+				if (!publisher.close(5, TimeUnit.SECONDS)) {
+					logger.warning("PubSub API: some events published to " + publisher.getTopicName()
+							+ " were not acknowledged before closing");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		publishers.clear();
+		// The gauge would keep the cache of a removed tenant alive
+		metrics.removeGauge("schemaCache.size");
+		if (ownsSessionManager) {
+			sessionManager.close();
+		}
+	}
+}
@@ -10,7 +10,6 @@ import javax.xml.parsers.SAXParserFactory;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.xml.sax.Attributes;
 import org.xml.sax.helpers.DefaultHandler;
@@ -28,7 +27,11 @@ public class AuthenticationHelper {
 	public static SalesforceSession login(String loginUrl, String username, String password, String secretToken)
 			throws AuthenticationException {
 		String requestBody = getSoapLoginRequestBody(username, password, secretToken);
-		try (CloseableHttpClient httpclient = HttpClients.createDefault()) {
+		// The validity of the session starts before the response is received
+		long requestStart = System.currentTimeMillis();
+		try {
+			// Logins share a pooled client
+			CloseableHttpClient httpclient = LoginHttpClient.get();
 			// Prepare authentication request
 			HttpPost request = new HttpPost(loginUrl + SOAP_LOGIN_SERVICE_URI);
 			request.addHeader("Content-Type", "text/xml; charset=UTF-8");
@@ -41,7 +44,12 @@ public class AuthenticationHelper {
 				if (response.getCode() == 200) {
 					String instanceUrl = "https://" + new URL(parser.serverUrl).getHost();
 					logger.info(String.format("Logged as %s on %s", username, instanceUrl));
-					return new SalesforceSession(parser.sessionId, parser.organizationId, instanceUrl);
+					long expiresAtMillis = SalesforceSession.NO_EXPIRY;
+					if (parser.sessionSecondsValid != null) {
+						expiresAtMillis = requestStart + Long.parseLong(parser.sessionSecondsValid.trim()) * 1000;
+					}
+					return new SalesforceSession(parser.sessionId, parser.organizationId, instanceUrl,
+							expiresAtMillis);
 				}
 				throw new Exception(
 						String.format("Request failed with HTTP %d: %s", response.getCode(), parser.faultstring));
@@ -92,6 +100,7 @@ public class AuthenticationHelper {
 		private String serverUrl;
 		private String sessionId;
 		private String organizationId;
+		private String sessionSecondsValid;
 
 		private String buffer;
 		private boolean reading = false;
@@ -116,6 +125,9 @@ public class AuthenticationHelper {
 			case "serverUrl":
 				serverUrl = buffer;
 				break;
+			case "sessionSecondsValid":
+				sessionSecondsValid = buffer;
+				break;
 			case "faultstring":
 				faultstring = buffer;
 				break;
@@ -131,6 +143,7 @@ public class AuthenticationHelper {
 			case "serverUrl":
 			case "faultstring":
 			case "organizationId":
+			case "sessionSecondsValid":
 				reading = true;
 				break;
 			default:
@@ -0,0 +1,37 @@
+package org.salesforce.demo.auth;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+
+/**
+ * HTTP client shared by all logins. Its pool keeps connections to the login servers alive between logins, so
+ * renewals and concurrent logins to several orgs don't pay for a TCP and TLS handshake each.
+ */
+final class LoginHttpClient {
+	private static final int MAX_CONNECTIONS = 50;
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 20;
+	private static final TimeValue MAX_IDLE_TIME = TimeValue.ofMinutes(1);
+
+	private LoginHttpClient() {
+	}
+
+	/**
+	 * @return shared client, never to be closed
+	 */
+	static CloseableHttpClient get() {
+		return Holder.CLIENT;
+	}
+
+	private static class Holder {
+		private static final CloseableHttpClient CLIENT = HttpClients.custom()
+				.setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+						.setMaxConnTotal(MAX_CONNECTIONS)
+						.setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+						.setValidateAfterInactivity(TimeValue.ofSeconds(10))
+						.build())
+				.evictIdleConnections(MAX_IDLE_TIME)
+				.build();
+	}
+}
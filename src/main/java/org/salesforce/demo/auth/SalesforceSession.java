@@ -1,14 +1,31 @@
 package org.salesforce.demo.auth;
 
 public class SalesforceSession {
+	/**
+	 * Expiry of sessions whose validity is unknown
+	 */
+	public static final long NO_EXPIRY = Long.MAX_VALUE;
+
 	private String accessToken;
 	private String orgId;
 	private String instanceUrl;
+	private long expiresAtMillis;
 	
 	public SalesforceSession(String accessToken, String orgId, String instanceUrl) {
+		this(accessToken, orgId, instanceUrl, NO_EXPIRY);
+	}
+
+	/**
+	 * @param accessToken
+	 * @param orgId
+	 * @param instanceUrl
+	 * @param expiresAtMillis time at which the session expires or {@link #NO_EXPIRY} if unknown
+	 */
+	public SalesforceSession(String accessToken, String orgId, String instanceUrl, long expiresAtMillis) {
 		this.accessToken = accessToken;
 		this.orgId = orgId;
 		this.instanceUrl = instanceUrl;
+		this.expiresAtMillis = expiresAtMillis;
 	}
 	
 	public String getAccessToken() {
@@ -20,4 +37,11 @@ public class SalesforceSession {
 	public String getInstanceUrl() {
 		return instanceUrl;
 	}
+
+	/**
+	 * @return time at which the session expires or {@link #NO_EXPIRY} if unknown
+	 */
+	public long getExpiresAtMillis() {
+		return expiresAtMillis;
+	}
 }
@@ -0,0 +1,122 @@
+package org.salesforce.demo.auth;
+
+import java.util.concurrent.Executor;
+
+import org.salesforce.demo.auth.AuthenticationHelper.AuthenticationException;
+
+import io.grpc.CallCredentials;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.AbstractStub;
+
+/**
+ * Credentials of a tenant, attached to each call rather than to the channel so that the stubs of many tenants can
+ * share the same channels. Each call carries the headers of the current session of the tenant, and calls rejected as
+ * unauthenticated trigger a refresh of that session.
+ */
+public class SessionCallCredentials extends CallCredentials {
+	static final Metadata.Key<String> ACCESS_TOKEN = Metadata.Key.of("accesstoken",
+			Metadata.ASCII_STRING_MARSHALLER);
+	static final Metadata.Key<String> INSTANCE_URL = Metadata.Key.of("instanceurl", Metadata.ASCII_STRING_MARSHALLER);
+	static final Metadata.Key<String> TENANT_ID = Metadata.Key.of("tenantid", Metadata.ASCII_STRING_MARSHALLER);
+
+	private final String tenantId;
+	private final SessionManager sessionManager;
+	private final ClientInterceptor rejectionInterceptor = new RejectionInterceptor();
+
+	/**
+	 * @param tenantId       key of the tenant
+	 * @param sessionManager sessions of the tenant
+	 */
+	public SessionCallCredentials(String tenantId, SessionManager sessionManager) {
+		this.tenantId = tenantId;
+		this.sessionManager = sessionManager;
+	}
+
+	public String getTenantId() {
+		return tenantId;
+	}
+
+	public SessionManager getSessionManager() {
+		return sessionManager;
+	}
+
+	/**
+	 * @param stub
+	 * @return copy of the stub whose calls carry these credentials
+	 */
+	public <T extends AbstractStub<T>> T attachTo(T stub) {
+		return stub.withCallCredentials(this).withInterceptors(rejectionInterceptor);
+	}
+
+	@Override
+	public void applyRequestMetadata(RequestInfo requestInfo, Executor appExecutor, MetadataApplier applier) {
+		SalesforceSession session = sessionManager.getCachedSession();
+		if (session != null) {
+			applier.apply(toHeaders(session));
+			return;
+		}
+		// The first login blocks, keep it off the transport threads
+		appExecutor.execute(() -> {
+			try {
+				applier.apply(toHeaders(sessionManager.getSession()));
+			} catch (AuthenticationException e) {
+				applier.fail(Status.UNAUTHENTICATED
+						.withDescription("No Salesforce session for tenant " + tenantId + ": " + e.getMessage())
+						.withCause(e));
+			} catch (RuntimeException e) {
+				applier.fail(Status.INTERNAL.withDescription("Failed to apply credentials of tenant " + tenantId)
+						.withCause(e));
+			}
+		});
+	}
+
+	@Override
+	public void thisUsesUnstableApi() {
+	}
+
+	private static Metadata toHeaders(SalesforceSession session) {
+		Metadata headers = new Metadata();
+		headers.put(ACCESS_TOKEN, session.getAccessToken());
+		headers.put(INSTANCE_URL, session.getInstanceUrl());
+		headers.put(TENANT_ID, session.getOrgId());
+		return headers;
+	}
+
+	/**
+	 * Renews the session when the server rejects it
+	 */
+	private class RejectionInterceptor implements ClientInterceptor {
+		@Override
+		public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+				CallOptions callOptions, Channel next) {
+			return new SimpleForwardingClientCall<ReqT, RespT>(next.newCall(method, callOptions)) {
+				@Override
+				public void start(Listener<RespT> responseListener, Metadata headers) {
+					SalesforceSession session = sessionManager.getCachedSession();
+					super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+						@Override
+						public void onClose(Status status, Metadata trailers) {
+							if (status.getCode() == Status.Code.UNAUTHENTICATED) {
+								// Calls started before the first login carry the session it opened
+								SalesforceSession rejected = session != null ? session
+										: sessionManager.getCachedSession();
+								if (rejected != null) {
+									sessionManager.onRejected(rejected);
+								}
+							}
+							super.onClose(status, trailers);
+						}
+					}, headers);
+				}
+			};
+		}
+	}
+}
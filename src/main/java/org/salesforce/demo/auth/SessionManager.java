@@ -0,0 +1,161 @@
+package org.salesforce.demo.auth;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.salesforce.demo.auth.AuthenticationHelper.AuthenticationException;
+
+/**
+ * Caches a Salesforce session and renews it in the background before it expires, so that calls never wait for a
+ * login once the first one succeeded.
+ * The refresh happens a margin before the expiry, or halfway through the validity of short sessions. A failed refresh
+ * is retried after a delay while the current session remains in use. Sessions whose expiry is unknown are only renewed
+ * when the server rejects them.
+ */
+public class SessionManager implements AutoCloseable {
+	private static final Logger logger = Logger.getLogger(SessionManager.class.getName());
+
+	private final SessionProvider provider;
+	private final long refreshMarginMillis;
+	private final long retryDelayMillis;
+	private final ScheduledExecutorService scheduler;
+
+	private volatile SalesforceSession session;
+	private CompletableFuture<SalesforceSession> nextSession = new CompletableFuture<>();
+	private ScheduledFuture<?> refreshTask;
+	private boolean closed;
+
+	/**
+	 * @param provider            opens sessions
+	 * @param refreshMarginMillis time before the expiry at which sessions are renewed
+	 * @param retryDelayMillis    delay before retrying a failed refresh
+	 */
+	public SessionManager(SessionProvider provider, long refreshMarginMillis, long retryDelayMillis) {
+		this.provider = provider;
+		this.refreshMarginMillis = refreshMarginMillis;
+		this.retryDelayMillis = retryDelayMillis;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "pubsub-session-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns the cached session, logging in first if there is none yet
+	 *
+	 * @return current session
+	 * @throws AuthenticationException
+	 */
+	public SalesforceSession getSession() throws AuthenticationException {
+		SalesforceSession current = session;
+		if (current != null) {
+			return current;
+		}
+		synchronized (this) {
+			if (session == null) {
+				update(provider.login());
+			}
+			return session;
+		}
+	}
+
+	/**
+	 * @return cached session, null before the first login
+	 */
+	public SalesforceSession getCachedSession() {
+		return session;
+	}
+
+	/**
+	 * Renews the session in the background after the server rejected it. Rejections of a session that was already
+	 * replaced are ignored, so that a burst of failed calls triggers a single login.
+	 *
+	 * @param rejected session the server rejected
+	 */
+	public synchronized void onRejected(SalesforceSession rejected) {
+		if (closed || rejected != session) {
+			return;
+		}
+		if (refreshTask != null && !refreshTask.isDone() && refreshTask.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+			// A refresh is already running
+			return;
+		}
+		logger.info("PubSub API: session rejected by the server, renewing it...");
+		schedule(0);
+	}
+
+	/**
+	 * Lets callers wait for the renewal that a rejection triggers rather than retrying with the rejected session. The
+	 * future is completed on the thread that renews the session, so its dependent actions should not block.
+	 *
+	 * @param rejected session the server rejected
+	 * @return future completed with the session that replaces the rejected one, right away if it was already replaced,
+	 *         or cancelled if the manager is closed first
+	 */
+	public synchronized CompletableFuture<SalesforceSession> awaitRenewal(SalesforceSession rejected) {
+		if (session != null && session != rejected) {
+			return CompletableFuture.completedFuture(session);
+		}
+		return nextSession;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		nextSession.cancel(false);
+		if (refreshTask != null) {
+			refreshTask.cancel(false);
+		}
+		scheduler.shutdownNow();
+	}
+
+	private void refresh() {
+		try {
+			SalesforceSession renewed = provider.login();
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				update(renewed);
+			}
+			logger.info("PubSub API: session renewed");
+		} catch (AuthenticationException e) {
+			logger.warning("PubSub API: failed to renew session, retrying in " + retryDelayMillis + " ms: "
+					+ e.getMessage());
+			synchronized (this) {
+				if (!closed) {
+					schedule(retryDelayMillis);
+				}
+			}
+		} catch (RuntimeException e) {
+			logger.severe("PubSub API: failed to renew session: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the session, completes the renewal waiters and schedules the next refresh
+	 */
+	private synchronized void update(SalesforceSession renewed) {
+		session = renewed;
+		CompletableFuture<SalesforceSession> renewal = nextSession;
+		nextSession = new CompletableFuture<>();
+		renewal.complete(renewed);
+		if (renewed.getExpiresAtMillis() == SalesforceSession.NO_EXPIRY) {
+			return;
+		}
+		long validityMillis = renewed.getExpiresAtMillis() - System.currentTimeMillis();
+		schedule(Math.max(0, validityMillis - Math.min(refreshMarginMillis, validityMillis / 2)));
+	}
+
+	private synchronized void schedule(long delayMillis) {
+		if (refreshTask != null) {
+			refreshTask.cancel(false);
+		}
+		refreshTask = scheduler.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,15 @@
+package org.salesforce.demo.auth;
+
+import org.salesforce.demo.auth.AuthenticationHelper.AuthenticationException;
+
+/**
+ * Opens Salesforce sessions
+ */
+@FunctionalInterface
+public interface SessionProvider {
+	/**
+	 * @return new session
+	 * @throws AuthenticationException
+	 */
+	SalesforceSession login() throws AuthenticationException;
+}
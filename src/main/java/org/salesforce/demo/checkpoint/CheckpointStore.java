@@ -0,0 +1,30 @@
+package org.salesforce.demo.checkpoint;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Keeps track of the last processed replay ID of each topic so that subscriptions can resume where they left off
+ * after a restart. Implementations must make {@link #save(String, ByteString)} cheap enough to be called for every
+ * processed batch of events: persisting checkpoints is expected to happen asynchronously.
+ */
+public interface CheckpointStore {
+
+	/**
+	 * @param topicName
+	 * @return last saved replay ID of the topic or null if there is none
+	 */
+	ByteString getReplayId(String topicName);
+
+	/**
+	 * Records the last processed replay ID of a topic
+	 * 
+	 * @param topicName
+	 * @param replayId
+	 */
+	void save(String topicName, ByteString replayId);
+
+	/**
+	 * Persists pending checkpoints and releases resources
+	 */
+	void close();
+}
@@ -0,0 +1,175 @@
+package org.salesforce.demo.checkpoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Checkpoint store backed by an append-only local file.
+ * Saving a checkpoint only records it in memory. A background thread group-commits the latest replay ID of every
+ * topic that changed since the previous flush with a single write and a single fsync, so disk latency never hits
+ * the event thread. The file holds one {@code topicName<TAB>base64ReplayId} line per checkpoint, the last line of
+ * a topic wins, and the file is compacted once it grows past a threshold.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+	private static final Logger logger = Logger.getLogger(FileCheckpointStore.class.getName());
+
+	private static final long COMPACTION_THRESHOLD_BYTES = 1024 * 1024;
+
+	private final Path path;
+	private final Map<String, ByteString> committed = new ConcurrentHashMap<>();
+	private final Map<String, ByteString> pending = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService flusher;
+	private FileChannel channel;
+
+	/**
+	 * @param path                checkpoint file, created if it doesn't exist
+	 * @param flushIntervalMillis delay between two group commits, at least one millisecond
+	 * @throws IOException
+	 */
+	public FileCheckpointStore(Path path, long flushIntervalMillis) throws IOException {
+		this.path = path;
+		load();
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "checkpoint-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long interval = Math.max(1, flushIntervalMillis);
+		flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public ByteString getReplayId(String topicName) {
+		ByteString replayId = pending.get(topicName);
+		return replayId != null ? replayId : committed.get(topicName);
+	}
+
+	@Override
+	public void save(String topicName, ByteString replayId) {
+		pending.put(topicName, replayId);
+	}
+
+	@Override
+	public void close() {
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(5, TimeUnit.SECONDS);
+			flush();
+			channel.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Failed to close checkpoint file " + path + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes all pending checkpoints with a single write and fsync
+	 *
+	 * @throws IOException
+	 */
+	synchronized void flush() throws IOException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		StringBuilder lines = new StringBuilder();
+		Map<String, ByteString> flushed = new HashMap<>();
+		for (Map.Entry<String, ByteString> entry : pending.entrySet()) {
+			flushed.put(entry.getKey(), entry.getValue());
+			appendLine(lines, entry.getKey(), entry.getValue());
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.force(false);
+		// Checkpoints stay pending until they're durable, so that a failed write is retried by the next flush
+		committed.putAll(flushed);
+		for (Map.Entry<String, ByteString> entry : flushed.entrySet()) {
+			// Only remove the entry if it wasn't updated concurrently, otherwise the next flush picks it up
+			pending.remove(entry.getKey(), entry.getValue());
+		}
+		if (channel.size() > COMPACTION_THRESHOLD_BYTES) {
+			compact();
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Failed to write checkpoints to " + path + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Rewrites the file with only the latest checkpoint of each topic
+	 */
+	private void compact() throws IOException {
+		StringBuilder lines = new StringBuilder();
+		committed.forEach((topicName, replayId) -> appendLine(lines, topicName, replayId));
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				tempChannel.write(buffer);
+			}
+			tempChannel.force(false);
+		}
+		channel.close();
+		try {
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// Appends go on to the compacted file, or to the previous one if the move failed
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+		}
+	}
+
+	private void load() throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		// Ignore the last line if it isn't terminated: it was left incomplete by a crash
+		int end = content.lastIndexOf('\n');
+		for (String line : content.substring(0, end + 1).split("\n")) {
+			int separator = line.lastIndexOf('\t');
+			if (separator <= 0) {
+				continue;
+			}
+			try {
+				byte[] replayId = Base64.getDecoder().decode(line.substring(separator + 1));
+				committed.put(line.substring(0, separator), ByteString.copyFrom(replayId));
+			} catch (IllegalArgumentException e) {
+				logger.warning("Ignoring corrupted checkpoint line in " + path);
+			}
+		}
+		logger.info("Loaded " + committed.size() + " checkpoint(s) from " + path);
+	}
+
+	private static void appendLine(StringBuilder lines, String topicName, ByteString replayId) {
+		lines.append(topicName).append('\t').append(Base64.getEncoder().encodeToString(replayId.toByteArray()))
+				.append('\n');
+	}
+}
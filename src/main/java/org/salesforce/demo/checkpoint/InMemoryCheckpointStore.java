@@ -0,0 +1,27 @@
+package org.salesforce.demo.checkpoint;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Checkpoint store that only lives as long as the process. Useful to resume a subscription after a reconnect.
+ */
+public class InMemoryCheckpointStore implements CheckpointStore {
+	private final Map<String, ByteString> replayIds = new ConcurrentHashMap<>();
+
+	@Override
+	public ByteString getReplayId(String topicName) {
+		return replayIds.get(topicName);
+	}
+
+	@Override
+	public void save(String topicName, ByteString replayId) {
+		replayIds.put(topicName, replayId);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,36 @@
+package org.salesforce.demo.checkpoint;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * View of a checkpoint store whose topic names are prefixed with a namespace, such as a tenant ID, so that several
+ * orgs subscribing to the same topics share a store without overwriting each other's checkpoints. Closing the view
+ * leaves the underlying store open.
+ */
+public class NamespacedCheckpointStore implements CheckpointStore {
+	private final CheckpointStore store;
+	private final String namespace;
+
+	/**
+	 * @param store
+	 * @param namespace prefix of the topic names, topic names starting with a slash
+	 */
+	public NamespacedCheckpointStore(CheckpointStore store, String namespace) {
+		this.store = store;
+		this.namespace = namespace;
+	}
+
+	@Override
+	public ByteString getReplayId(String topicName) {
+		return store.getReplayId(namespace + topicName);
+	}
+
+	@Override
+	public void save(String topicName, ByteString replayId) {
+		store.save(namespace + topicName, replayId);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -1,121 +1,267 @@
 package org.salesforce.demo.events;
 
+import java.util.Collections;
 import java.util.List;
 
+import org.apache.avro.generic.GenericRecord;
+
 /**
- * Wrapper class for Change Event Header fields
+ * Wrapper class for Change Event Header fields.
+ * This is a lazy view over the decoded Avro record: fields are converted and bitmap-compressed field lists are
+ * expanded the first time they are accessed, then memoized. Consumers that only route on a couple of fields
+ * don't pay for the rest of the header.
+ * The setters are kept for compatibility, a value that is set overrides the field of the record.
+ * When records are reused across events, the header is a copy whose fields are all converted up front, since the record
+ * is overwritten by the next event.
  * @see https://developer.salesforce.com/docs/atlas.en-us.change_data_capture.meta/change_data_capture/cdc_event_fields_header.htm
  */
 public class ChangeEventHeader {
-	private String entityName;
-	private List<String> recordIds;
-	private ChangeType changeType;
-	private String changeOrigin;
-	private String transactionKey;
-	private int sequenceNumber;
-	private long commitTimestamp;
-	private long commitNumber;
-	private String commitUser;
-	private List<String> nulledFields;
-	private List<String> diffFields;
-	private List<String> changedFields;
-	
+	private final FieldBitmapIndex bitmapIndex;
+	private final GenericRecord record;
+
+	private volatile String entityName;
+	private volatile List<String> recordIds;
+	private volatile ChangeType changeType;
+	private volatile String changeOrigin;
+	private volatile String transactionKey;
+	private volatile Integer sequenceNumber;
+	private volatile Long commitTimestamp;
+	private volatile Long commitNumber;
+	private volatile String commitUser;
+	private volatile List<String> nulledFields;
+	private volatile List<String> diffFields;
+	private volatile List<String> changedFields;
+
+	/**
+	 * Creates a header that isn't backed by a record, all fields are unset until their setter is called
+	 * 
+	 * @deprecated headers are created by {@link EventParser}
+	 */
+	@Deprecated
+	public ChangeEventHeader() {
+		this(null, null);
+	}
+
+	/**
+	 * @param bitmapIndex lookup tables of the event schema, used to expand bitmap-compressed field lists
+	 * @param record      ChangeEventHeader record
+	 */
+	ChangeEventHeader(FieldBitmapIndex bitmapIndex, GenericRecord record) {
+		this.bitmapIndex = bitmapIndex;
+		this.record = record;
+	}
+
+	/**
+	 * Converts every field of a header record right away, for records that are reused once the event is handled
+	 *
+	 * @param bitmapIndex lookup tables of the event schema, used to expand bitmap-compressed field lists
+	 * @param record      ChangeEventHeader record
+	 * @return header that doesn't reference the record
+	 */
+	static ChangeEventHeader copyOf(FieldBitmapIndex bitmapIndex, GenericRecord record) {
+		ChangeEventHeader view = new ChangeEventHeader(bitmapIndex, record);
+		ChangeEventHeader copy = new ChangeEventHeader(bitmapIndex, null);
+		copy.entityName = view.getEntityName();
+		copy.recordIds = view.getRecordIds();
+		copy.changeType = view.getChangeType();
+		copy.changeOrigin = view.getChangeOrigin();
+		copy.transactionKey = view.getTransactionKey();
+		copy.sequenceNumber = view.getSequenceNumber();
+		copy.commitTimestamp = view.getCommitTimestamp();
+		copy.commitNumber = view.getCommitNumber();
+		copy.commitUser = view.getCommitUser();
+		copy.nulledFields = view.getNulledFields();
+		copy.diffFields = view.getDiffFields();
+		copy.changedFields = view.getChangedFields();
+		return copy;
+	}
+
 	public String getEntityName() {
+		if (entityName == null && record != null) {
+			entityName = record.get("entityName").toString();
+		}
 		return entityName;
 	}
 
+	/**
+	 * @deprecated overrides the entityName field of the header record
+	 */
+	@Deprecated
 	public void setEntityName(String entityName) {
 		this.entityName = entityName;
 	}
 
 	public List<String> getRecordIds() {
+		if (recordIds == null && record != null) {
+			recordIds = Collections.unmodifiableList(EventParser.parseStringList(record, "recordIds"));
+		}
 		return recordIds;
 	}
 
+	/**
+	 * @deprecated overrides the recordIds field of the header record
+	 */
+	@Deprecated
 	public void setRecordIds(List<String> recordIds) {
 		this.recordIds = recordIds;
 	}
 
 	public ChangeType getChangeType() {
+		if (changeType == null && record != null) {
+			changeType = EventParser.parseChangeType(record, "changeType");
+		}
 		return changeType;
 	}
 
+	/**
+	 * @deprecated overrides the changeType field of the header record
+	 */
+	@Deprecated
 	public void setChangeType(ChangeType changeType) {
 		this.changeType = changeType;
 	}
 
 	public String getChangeOrigin() {
+		if (changeOrigin == null && record != null) {
+			changeOrigin = record.get("changeOrigin").toString();
+		}
 		return changeOrigin;
 	}
 
+	/**
+	 * @deprecated overrides the changeOrigin field of the header record
+	 */
+	@Deprecated
 	public void setChangeOrigin(String changeOrigin) {
 		this.changeOrigin = changeOrigin;
 	}
 
 	public String getTransactionKey() {
+		if (transactionKey == null && record != null) {
+			transactionKey = record.get("transactionKey").toString();
+		}
 		return transactionKey;
 	}
 
+	/**
+	 * @deprecated overrides the transactionKey field of the header record
+	 */
+	@Deprecated
 	public void setTransactionKey(String transactionKey) {
 		this.transactionKey = transactionKey;
 	}
 
 	public int getSequenceNumber() {
-		return sequenceNumber;
+		if (sequenceNumber != null) {
+			return sequenceNumber;
+		}
+		return record != null ? (int) record.get("sequenceNumber") : 0;
 	}
 
+	/**
+	 * @deprecated overrides the sequenceNumber field of the header record
+	 */
+	@Deprecated
 	public void setSequenceNumber(int sequenceNumber) {
 		this.sequenceNumber = sequenceNumber;
 	}
 
 	public long getCommitTimestamp() {
-		return commitTimestamp;
+		if (commitTimestamp != null) {
+			return commitTimestamp;
+		}
+		return record != null ? (long) record.get("commitTimestamp") : 0;
 	}
 
+	/**
+	 * @deprecated overrides the commitTimestamp field of the header record
+	 */
+	@Deprecated
 	public void setCommitTimestamp(long commitTimestamp) {
 		this.commitTimestamp = commitTimestamp;
 	}
 
 	public long getCommitNumber() {
-		return commitNumber;
+		if (commitNumber != null) {
+			return commitNumber;
+		}
+		return record != null ? (long) record.get("commitNumber") : 0;
 	}
 
+	/**
+	 * @deprecated overrides the commitNumber field of the header record
+	 */
+	@Deprecated
 	public void setCommitNumber(long commitNumber) {
 		this.commitNumber = commitNumber;
 	}
 
 	public String getCommitUser() {
+		if (commitUser == null && record != null) {
+			commitUser = record.get("commitUser").toString();
+		}
 		return commitUser;
 	}
 
+	/**
+	 * @deprecated overrides the commitUser field of the header record
+	 */
+	@Deprecated
 	public void setCommitUser(String commitUser) {
 		this.commitUser = commitUser;
 	}
 
 	public List<String> getNulledFields() {
+		if (nulledFields == null && record != null) {
+			nulledFields = Collections.unmodifiableList(expandFieldList("nulledFields"));
+		}
 		return nulledFields;
 	}
 
+	/**
+	 * @deprecated overrides the nulledFields field of the header record
+	 */
+	@Deprecated
 	public void setNulledFields(List<String> nulledFields) {
 		this.nulledFields = nulledFields;
 	}
 
 	public List<String> getDiffFields() {
+		if (diffFields == null && record != null) {
+			diffFields = Collections.unmodifiableList(expandFieldList("diffFields"));
+		}
 		return diffFields;
 	}
 
+	/**
+	 * @deprecated overrides the diffFields field of the header record
+	 */
+	@Deprecated
 	public void setDiffFields(List<String> diffFields) {
 		this.diffFields = diffFields;
 	}
 
 	public List<String> getChangedFields() {
+		if (changedFields == null && record != null) {
+			changedFields = Collections.unmodifiableList(expandFieldList("changedFields"));
+		}
 		return changedFields;
 	}
 
+	/**
+	 * @deprecated overrides the changedFields field of the header record
+	 */
+	@Deprecated
 	public void setChangedFields(List<String> changedFields) {
 		this.changedFields = changedFields;
 	}
 
+	private List<String> expandFieldList(String fieldName) {
+		@SuppressWarnings("unchecked")
+		List<? extends CharSequence> values = (List<? extends CharSequence>) record.get(fieldName);
+		return bitmapIndex.expand(values);
+	}
+
 	public enum ChangeType {
 	    CREATE,
 	    UPDATE,
@@ -1,30 +1,67 @@
 package org.salesforce.demo.events;
 
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificRecord;
 
+import com.google.protobuf.ByteString;
+
+/**
+ * Decoded event. When {@code pubSub.parser.reuseRecords} is enabled, the payload record is recycled for the next event
+ * decoded by the same worker thread once the handler returns: an event, or a payload record, that is kept after
+ * handling reads the data of a later event. Copy the values to keep instead. The header is safe to keep, it is copied
+ * when records are reused.
+ */
 public class Event {
 	private ChangeEventHeader header;
+	private ByteString replayIdBytes;
 	private long replayId;
 	private GenericRecord payload;
 	
-	public Event(ChangeEventHeader header, long replayId, GenericRecord payload) {
+	public Event(ChangeEventHeader header, ByteString replayIdBytes, GenericRecord payload) {
 		super();
 		this.header = header;
-		this.replayId = replayId;
+		this.replayIdBytes = replayIdBytes;
+		this.replayId = ReplayId.toLong(replayIdBytes);
 		this.payload = payload;
 	}
 	
+	/**
+	 * @return header of a change event or null for events without a header, such as platform events
+	 */
 	public ChangeEventHeader getHeader() {
 		return header;
 	}
 	
+	/**
+	 * @return numeric replay ID or {@link ReplayId#OPAQUE} if the ID isn't numeric
+	 */
 	public long getReplayId() {
 		return replayId;
 	}
 
+	/**
+	 * @return replay ID as sent by the server, suitable for resuming a subscription
+	 */
+	public ByteString getReplayIdBytes() {
+		return replayIdBytes;
+	}
+
+	/**
+	 * @return payload record, an instance of the generated class when there is one for the event schema
+	 */
 	public GenericRecord getPayload() {
 		return payload;
 	}
+
+	/**
+	 * @param type class generated from the event schema
+	 * @return typed payload record
+	 * @throws ClassCastException if the event wasn't decoded into the given class, for instance because the class
+	 *                            was generated from another version of the schema
+	 */
+	public <T extends SpecificRecord> T getPayload(Class<T> type) {
+		return type.cast(payload);
+	}
 	
 	public String toString() {
 		return this.payload.toString();
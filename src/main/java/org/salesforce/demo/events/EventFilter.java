@@ -0,0 +1,124 @@
+package org.salesforce.demo.events;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.salesforce.demo.events.ChangeEventHeader.ChangeType;
+
+/**
+ * Selects change events based on their header.
+ * Only the header of an event is decoded to evaluate the filter, the record fields are decoded only when the event
+ * is accepted. Each criterion is optional and an event must meet all of the criteria that are set. Filters are
+ * immutable, criteria are added with the {@code with} methods:
+ *
+ * <pre>
+ * EventFilter.all().withEntityNames("Account").withChangeTypes(ChangeType.UPDATE).withChangedFields("Name");
+ * </pre>
+ *
+ * Events that have no Change Event Header, such as platform events, always pass the filter.
+ */
+public final class EventFilter {
+	private static final EventFilter ALL = new EventFilter(Collections.emptySet(), EnumSet.noneOf(ChangeType.class),
+			Collections.emptySet());
+
+	private final Set<String> entityNames;
+	private final Set<ChangeType> changeTypes;
+	private final Set<String> changedFields;
+
+	private EventFilter(Set<String> entityNames, Set<ChangeType> changeTypes, Set<String> changedFields) {
+		this.entityNames = entityNames;
+		this.changeTypes = changeTypes;
+		this.changedFields = changedFields;
+	}
+
+	/**
+	 * @return filter that accepts all events
+	 */
+	public static EventFilter all() {
+		return ALL;
+	}
+
+	/**
+	 * @param entityNames accepted entity names
+	 * @return copy of this filter that only accepts events about one of the entities
+	 */
+	public EventFilter withEntityNames(String... entityNames) {
+		return withEntityNames(Arrays.asList(entityNames));
+	}
+
+	public EventFilter withEntityNames(Collection<String> entityNames) {
+		return new EventFilter(Collections.unmodifiableSet(new HashSet<>(entityNames)), changeTypes, changedFields);
+	}
+
+	/**
+	 * @param changeTypes accepted change types
+	 * @return copy of this filter that only accepts events with one of the change types
+	 */
+	public EventFilter withChangeTypes(ChangeType... changeTypes) {
+		return withChangeTypes(Arrays.asList(changeTypes));
+	}
+
+	public EventFilter withChangeTypes(Collection<ChangeType> changeTypes) {
+		EnumSet<ChangeType> types = EnumSet.noneOf(ChangeType.class);
+		types.addAll(changeTypes);
+		return new EventFilter(entityNames, types, changedFields);
+	}
+
+	/**
+	 * @param changedFields field names, a compound field name such as {@code BillingAddress} matches changes to
+	 *                      any of its components
+	 * @return copy of this filter that only accepts events that changed at least one of the fields
+	 */
+	public EventFilter withChangedFields(String... changedFields) {
+		return withChangedFields(Arrays.asList(changedFields));
+	}
+
+	public EventFilter withChangedFields(Collection<String> changedFields) {
+		return new EventFilter(entityNames, changeTypes, Collections.unmodifiableSet(new HashSet<>(changedFields)));
+	}
+
+	/**
+	 * @return whether the filter accepts all events, in which case events don't need to be inspected
+	 */
+	public boolean acceptsAll() {
+		return entityNames.isEmpty() && changeTypes.isEmpty() && changedFields.isEmpty();
+	}
+
+	/**
+	 * @param header
+	 * @return whether the event meets the criteria
+	 */
+	public boolean matches(ChangeEventHeader header) {
+		if (!entityNames.isEmpty() && !entityNames.contains(header.getEntityName())) {
+			return false;
+		}
+		if (!changeTypes.isEmpty() && !changeTypes.contains(header.getChangeType())) {
+			return false;
+		}
+		return changedFields.isEmpty() || containsChangedField(header.getChangedFields());
+	}
+
+	private boolean containsChangedField(List<String> fieldNames) {
+		for (String fieldName : fieldNames) {
+			if (changedFields.contains(fieldName)) {
+				return true;
+			}
+			int separator = fieldName.indexOf('.');
+			if (separator > 0 && changedFields.contains(fieldName.substring(0, separator))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "EventFilter [entityNames=" + entityNames + ", changeTypes=" + changeTypes + ", changedFields="
+				+ changedFields + "]";
+	}
+}
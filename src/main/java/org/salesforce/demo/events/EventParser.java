@@ -1,224 +1,227 @@
 package org.salesforce.demo.events;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.avro.Schema;
-import org.apache.avro.Schema.Type;
-import org.apache.avro.file.SeekableByteArrayInput;
-import org.apache.avro.generic.GenericData.Array;
-import org.apache.avro.generic.GenericData.Record;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.util.Utf8;
 import org.salesforce.demo.events.ChangeEventHeader.ChangeType;
+import org.salesforce.demo.events.SchemaCache.CachedSchema;
+import org.salesforce.demo.events.SchemaCache.SchemaResolutionException;
 
 import com.google.protobuf.ByteString;
 import com.salesforce.eventbus.protobuf.ConsumerEvent;
 
 public class EventParser {
 
-	private Schema schema;
-	private DatumReader<GenericRecord> datumReader;
+	/**
+	 * Per-thread decoding state, reused across events to keep the decoding path free of allocations
+	 */
+	private static final ThreadLocal<DecodeState> decodeState = ThreadLocal.withInitial(DecodeState::new);
+
+	/**
+	 * Bytes copied to read the header or the ordering key, enough for the header of most change events
+	 */
+	static final int PREFIX_SIZE = 1024;
+
+	private SchemaCache schemaCache;
+	private boolean reuseRecords;
+	private FieldProjection projection;
 	
-	public EventParser(Schema schema) {
-		this.schema = schema;
-		this.datumReader = new GenericDatumReader<GenericRecord>(schema);
+	public EventParser(SchemaCache schemaCache) {
+		this(schemaCache, false);
+	}
+
+	/**
+	 * @param schemaCache
+	 * @param reuseRecords whether the payload record of the previous event parsed by the current thread may be
+	 *                     recycled for the next event. Only enable this when events are not retained after being
+	 *                     handled.
+	 */
+	public EventParser(SchemaCache schemaCache, boolean reuseRecords) {
+		this(schemaCache, reuseRecords, null);
+	}
+
+	/**
+	 * @param schemaCache
+	 * @param reuseRecords whether the payload record of the previous event parsed by the current thread may be
+	 *                     recycled for the next event
+	 * @param projection   fields to decode or null to decode all fields
+	 */
+	public EventParser(SchemaCache schemaCache, boolean reuseRecords, FieldProjection projection) {
+		this.schemaCache = schemaCache;
+		this.reuseRecords = reuseRecords;
+		this.projection = projection;
+	}
+
+	/**
+	 * @param projection fields to decode or null to decode all fields
+	 * @return parser sharing the schema cache and settings of this parser that only decodes the projected fields
+	 */
+	public EventParser withProjection(FieldProjection projection) {
+		return new EventParser(schemaCache, reuseRecords, projection);
 	}
 	
 	public Event parse(ConsumerEvent event) throws EventParseException {
-		long replayId = EventParser.parseReplayId(event.getReplayId());
-		byte[] avroPayload = event.getEvent().getPayload().toByteArray();
-		SeekableByteArrayInput byteStream = new SeekableByteArrayInput(avroPayload);
-		BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(byteStream, null);
+		ByteString replayId = event.getReplayId();
+		CachedSchema cachedSchema = resolveSchema(event);
+		GenericDatumReader<GenericRecord> datumReader = projection == null ? cachedSchema.getDatumReader()
+				: cachedSchema.getProjectedReader(projection);
+		// Records can only be reused with the schema they were decoded with
+		Schema schema = datumReader.getExpected();
+		DecodeState state = decodeState.get();
+		ByteString payload = event.getEvent().getPayload();
+		BinaryDecoder decoder = state.prepareDecoder(payload, payload.size());
 		try {
-			GenericRecord eventPayload = datumReader.read(null, decoder);
-			ChangeEventHeader header = EventParser.parseEventHeader(schema, eventPayload);
+			GenericRecord reuse = reuseRecords ? state.getReusableRecord(schema) : null;
+			GenericRecord eventPayload = datumReader.read(reuse, decoder);
+			if (reuseRecords) {
+				state.setReusableRecord(schema, eventPayload);
+			}
+			ChangeEventHeader header = parseEventHeader(cachedSchema, eventPayload, reuseRecords);
 			return new Event(header, replayId, eventPayload);
 		} catch (IOException e) {
 			throw new EventParseException("Failed to parse message: " + e.getMessage(), e);
 		}
 	}
 	
-	private static ChangeEventHeader parseEventHeader(Schema schema, GenericRecord eventPayload) throws IOException {
-		Record eventHeader = (Record) eventPayload.get("ChangeEventHeader");
-		ChangeEventHeader header = new ChangeEventHeader();
-		header.setEntityName(eventHeader.get("entityName").toString());
-		header.setRecordIds(parseStringList(eventHeader, "recordIds"));
-		header.setChangeType(parseChangeType(eventHeader, "changeType"));
-		header.setChangeOrigin(eventHeader.get("changeOrigin").toString());
-		header.setTransactionKey(eventHeader.get("transactionKey").toString());
-		header.setSequenceNumber((int) eventHeader.get("sequenceNumber"));
-		header.setCommitTimestamp((long) eventHeader.get("commitTimestamp"));
-		header.setCommitNumber((long) eventHeader.get("commitNumber"));
-		header.setCommitUser(eventHeader.get("commitUser").toString());
-		header.setNulledFields(getFieldListFromBitmap(schema, eventHeader, "nulledFields"));
-		header.setDiffFields(getFieldListFromBitmap(schema, eventHeader, "diffFields"));
-		header.setChangedFields(getFieldListFromBitmap(schema, eventHeader, "changedFields"));
-		return header;
-	}
-
 	/**
-	 * Parses the value of the replay ID 
-	 * 
-	 * @param replayIdAsBS
-	 * @return parsed long
-	 * @throws EventParseException 
+	 * Evaluates a filter on the header of an event, only the start of the payload is copied and the record fields
+	 * are not decoded
+	 *
+	 * @param event
+	 * @param filter
+	 * @return whether the event passes the filter
+	 * @throws EventParseException
 	 */
-	private static long parseReplayId(ByteString replayIdAsBS) throws EventParseException {
-		byte[] bytes = replayIdAsBS.toByteArray();
-		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-		for (int i=0; i<Long.BYTES; i++) {
-			buffer.put(bytes[i]);
-		}
-		buffer.flip();
-		return buffer.getLong();
-	}
-
-	private static List<String> parseStringList(Record record, String fieldName) {
-		List<String> values = new ArrayList<>();
-		@SuppressWarnings("unchecked")
-		Array<Utf8> utf8Values = (Array<Utf8>) record.get(fieldName);
-		for (Utf8 utf8Value : utf8Values) {
-			values.add(utf8Value.toString());
+	public boolean matches(ConsumerEvent event, EventFilter filter) throws EventParseException {
+		if (filter.acceptsAll()) {
+			return true;
 		}
-		return values;
-	}
-
-	private static List<String> getFieldListFromBitmap(Schema schema, Record eventHeader, String fieldName)
-			throws IOException {
-		@SuppressWarnings("unchecked")
-		Array<Utf8> utf8Values = (Array<Utf8>) eventHeader.get(fieldName);
-		List<String> values = new ArrayList<>();
-		for (Utf8 utf8Value : utf8Values) {
-			values.add(utf8Value.toString());
+		CachedSchema cachedSchema = resolveSchema(event);
+		HeaderReader headerReader = cachedSchema.getHeaderReader();
+		if (!headerReader.hasHeader()) {
+			return true;
+		}
+		try {
+			return filter.matches(new ChangeEventHeader(cachedSchema.getBitmapIndex(),
+					readPrefix(event.getEvent().getPayload(), headerReader::read)));
+		} catch (IOException e) {
+			throw new EventParseException("Failed to parse event header: " + e.getMessage(), e);
 		}
-		expandBitmap(schema, values);
-		return values;
 	}
 
 	/**
-	 * Translate a bitmap-compressed field list into its expanded representation as
-	 * a list of field names
+	 * Starts loading the schemas of events that are not cached yet, without blocking
+	 *
+	 * @param events
+	 * @return future that completes once the schemas are loaded or failed to load, null if they are all cached
 	 */
-	private static void expandBitmap(Schema schema, List<String> val) {
-		if (val != null && !val.isEmpty()) {
-			// replace top field level bitmap with list of fields
-			if (val.get(0).startsWith("0x")) {
-				String bitMap = val.get(0);
-				val.addAll(0, fieldNamesFromBitmap(schema, bitMap));
-				val.remove(bitMap);
+	public CompletableFuture<Void> loadSchemas(List<ConsumerEvent> events) {
+		CompletableFuture<Void> loaded = null;
+		String previousSchemaId = null;
+		for (ConsumerEvent event : events) {
+			String schemaId = event.getEvent().getSchemaId();
+			// Events of a response usually share their schema
+			if (schemaId.equals(previousSchemaId)) {
+				continue;
 			}
-			// replace parentPos-nestedNulledBitMap with list of fields too
-			if ((val.get(val.size() - 1)).contains("-")) {
-				for (ListIterator<String> itr = val.listIterator(); itr.hasNext();) {
-
-					String[] bitmapMapStrings = (itr.next()).split("-");
-					if (bitmapMapStrings.length < 2)
-						continue; // that's the first top level field bitmap;
-
-					// interpret the parent field name from mapping of parentFieldPos ->
-					// childFieldbitMap
-					Schema.Field parentField = schema.getFields().get(Integer.valueOf(bitmapMapStrings[0]));
-					Schema childSchema = getValueSchema(parentField.schema());
-
-					if (childSchema.getType().equals(Schema.Type.RECORD)) { // make sure we're really dealing with
-																			// compound field
-						int nestedSize = childSchema.getFields().size();
-						String parentFieldName = parentField.name();
-
-						// interpret the child field names from mapping of parentFieldPos ->
-						// childFieldbitMap
-						List<String> fullFieldNames = new ArrayList<>();
-						fieldNamesFromBitmap(childSchema, bitmapMapStrings[1]).stream()
-								.map(col -> parentFieldName + "." + col).forEach(fullFieldNames::add);
-						if (fullFieldNames.size() > 0) {
-							itr.remove();
-							// when all nested fields under a compound got nulled out at once by customer,
-							// we recognize the top level field instead of trying to list every single
-							// nested field
-							if (fullFieldNames.size() == nestedSize) {
-								itr.add(parentFieldName);
-							} else {
-								fullFieldNames.stream().forEach(itr::add);
-							}
-						}
-					}
-				}
+			previousSchemaId = schemaId;
+			CompletableFuture<CachedSchema> schema = schemaCache.getAsync(schemaId);
+			if (!schema.isDone()) {
+				CompletableFuture<Void> done = schema.handle((cached, t) -> null);
+				loaded = loaded == null ? done : CompletableFuture.allOf(loaded, done);
 			}
 		}
+		return loaded;
 	}
 
 	/**
-	 * Convert bitmap representation into list of fields based on Avro schema
-	 * 
-	 * @param schema schema
-	 * @param bitmap bitmap of nulled fields
-	 * @return list of fields corresponding to bitmap
+	 * Reads the ordering key of an event, only the start of the payload is copied and decoded. This never blocks on
+	 * a schema load, see {@link #loadSchemas}.
+	 *
+	 * @param event
+	 * @param orderingKey
+	 * @return key value or null if the event has no such key or its schema isn't loaded
+	 * @throws EventParseException
 	 */
-	private static List<String> fieldNamesFromBitmap(Schema schema, String bitmap) {
-		BitSet bitSet = convertHexStringToBitSet(bitmap);
-		List<String> fieldList = new ArrayList<>();
-		bitSet.stream().mapToObj(pos -> schema.getFields().get(pos).name())
-				.forEach(fieldName -> fieldList.add(fieldName));
-		return fieldList;
+	public String parseOrderingKey(ConsumerEvent event, OrderingKey orderingKey) throws EventParseException {
+		if (orderingKey == OrderingKey.NONE) {
+			return null;
+		}
+		CachedSchema cachedSchema = schemaCache.getIfLoaded(event.getEvent().getSchemaId());
+		if (cachedSchema == null) {
+			return null;
+		}
+		OrderingKeyReader orderingKeyReader = cachedSchema.getOrderingKeyReader();
+		try {
+			return readPrefix(event.getEvent().getPayload(), decoder -> orderingKeyReader.read(decoder, orderingKey));
+		} catch (IOException e) {
+			throw new EventParseException("Failed to parse ordering key: " + e.getMessage(), e);
+		}
 	}
 
 	/**
-	 * Converts a hexadecimal string into a BitSet
-	 * 
-	 * @param hex
-	 * @return BitSet
+	 * Resolves the schema the event was written with, it may change during the lifetime of a subscription
 	 */
-	private static BitSet convertHexStringToBitSet(String hex) {
-		// Parse hex string as bytes
-		String s = hex.substring(2); // Strip out 0x prefix
-		int len = s.length();
-		byte[] bytes = new byte[len / 2];
-		for (int i = 0; i < len; i += 2) {
-			// using left shift operator on every character
-			bytes[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4) + Character.digit(s.charAt(i + 1), 16));
-		}
-		// Reverse bytes
-		len /= 2;
-		byte[] reversedBytes = new byte[len];
-		for (int i = 0; i < len; i++) {
-			reversedBytes[i] = bytes[len - i - 1];
-		}
-		// Return value as BitSet
-		return BitSet.valueOf(reversedBytes);
+	private CachedSchema resolveSchema(ConsumerEvent event) throws EventParseException {
+		try {
+			return schemaCache.get(event.getEvent().getSchemaId());
+		} catch (SchemaResolutionException e) {
+			throw new EventParseException("Failed to resolve event schema: " + e.getMessage(), e);
+		}
 	}
 
 	/**
-	 * Get the value type of an "optional" schema, which is a union of [null,
-	 * valueSchema]
-	 * 
-	 * @param schema
-	 * @return value schema or the original schema if it does not look like optional
+	 * Reads values at the start of a payload. Only a prefix of the payload is copied, the whole payload is copied
+	 * when the values extend past the prefix.
 	 */
-	private static Schema getValueSchema(Schema schema) {
-		if (schema.getType() == Schema.Type.UNION) {
-			List<Schema> types = schema.getTypes();
-			if (types.size() == 2 && types.get(0).getType() == Type.NULL) {
-				// Optional is a union of (null, <type>), return the underlying type
-				return types.get(1);
-			} else if (types.size() == 2 && types.get(0).getType() == Type.STRING) {
-				// for required Switchable_PersonName
-				return schema.getTypes().get(1);
-			} else if (types.size() == 3 && types.get(0).getType() == Type.NULL
-					&& types.get(1).getType() == Type.STRING) {
-				// for optional Switchable_PersonName
-				return schema.getTypes().get(2);
+	private static <T> T readPrefix(ByteString payload, PrefixReader<T> reader) throws IOException {
+		DecodeState state = decodeState.get();
+		if (payload.size() > PREFIX_SIZE) {
+			try {
+				return reader.read(state.prepareDecoder(payload, PREFIX_SIZE));
+			} catch (EOFException e) {
+				// Values extend past the prefix
 			}
 		}
-		return schema;
+		return reader.read(state.prepareDecoder(payload, payload.size()));
+	}
+
+	private interface PrefixReader<T> {
+		T read(BinaryDecoder decoder) throws IOException;
+	}
+
+	private static ChangeEventHeader parseEventHeader(CachedSchema schema, GenericRecord eventPayload,
+			boolean reuseRecords) {
+		// Platform events have no header
+		if (eventPayload.getSchema().getField("ChangeEventHeader") == null) {
+			return null;
+		}
+		GenericRecord header = (GenericRecord) eventPayload.get("ChangeEventHeader");
+		if (reuseRecords) {
+			// The record is overwritten by the next event, headers kept by handlers must not read it later
+			return ChangeEventHeader.copyOf(schema.getBitmapIndex(), header);
+		}
+		// Header fields are only converted when accessed
+		return new ChangeEventHeader(schema.getBitmapIndex(), header);
+	}
+
+	static List<String> parseStringList(GenericRecord record, String fieldName) {
+		List<String> values = new ArrayList<>();
+		// Generic records hold Utf8 values, generated classes hold strings
+		@SuppressWarnings("unchecked")
+		List<? extends CharSequence> rawValues = (List<? extends CharSequence>) record.get(fieldName);
+		for (CharSequence rawValue : rawValues) {
+			values.add(rawValue.toString());
+		}
+		return values;
 	}
 
 	/**
@@ -228,11 +231,47 @@ public class EventParser {
 	 * @param fieldName
 	 * @return ChangeType value
 	 */
-	private static ChangeType parseChangeType(Record record, String fieldName) {
+	static ChangeType parseChangeType(GenericRecord record, String fieldName) {
 		String stringValue = record.get(fieldName).toString();
 		return ChangeType.valueOf(stringValue);
 	}
 	
+	/**
+	 * Reusable decoder and payload buffer.
+	 * Payloads are copied into a growable scratch array rather than streamed from the ByteString: Avro's buffered
+	 * decoder allocates a new read buffer whenever it is pointed at another InputStream, whereas pointing it at an
+	 * array is allocation free.
+	 */
+	private static final class DecodeState {
+		private byte[] buffer = new byte[4096];
+		private BinaryDecoder decoder;
+		private Schema recordSchema;
+		private GenericRecord record;
+
+		/**
+		 * @param payload
+		 * @param length  number of bytes to copy from the start of the payload
+		 * @return decoder reading the copied bytes
+		 */
+		private BinaryDecoder prepareDecoder(ByteString payload, int length) {
+			if (length > buffer.length) {
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			}
+			payload.copyTo(buffer, 0, 0, length);
+			decoder = DecoderFactory.get().binaryDecoder(buffer, 0, length, decoder);
+			return decoder;
+		}
+
+		private GenericRecord getReusableRecord(Schema schema) {
+			return schema == recordSchema ? record : null;
+		}
+
+		private void setReusableRecord(Schema schema, GenericRecord record) {
+			this.recordSchema = schema;
+			this.record = record;
+		}
+	}
+
 	public static class EventParseException extends Exception {
 		private static final long serialVersionUID = 477998699880304903L;
 
@@ -0,0 +1,215 @@
+package org.salesforce.demo.events;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.salesforce.demo.events.SchemaCache.CachedSchema;
+import org.salesforce.demo.events.SchemaCache.SchemaResolutionException;
+
+import com.google.protobuf.UnsafeByteOperations;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+
+/**
+ * Serializes records into events that can be published.
+ * Records are written with the datum writer cached alongside the schema, so a writer is only built once per schema
+ * ID. Each thread reuses its encoder, which writes straight into a growable buffer taken from a pool. The payload
+ * wraps that buffer without copying it, so the buffer may only go back to the pool once the event has been sent.
+ */
+public class EventSerializer {
+	/**
+	 * Larger buffers are left to the garbage collector rather than kept in the pool
+	 */
+	private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_BUFFER_SIZE = 512;
+
+	/**
+	 * Per-thread encoding state, reused across records
+	 */
+	private static final ThreadLocal<EncodeState> encodeState = ThreadLocal.withInitial(EncodeState::new);
+
+	private SchemaCache schemaCache;
+	private final BlockingQueue<byte[]> bufferPool;
+
+	public EventSerializer(SchemaCache schemaCache) {
+		this(schemaCache, 1024);
+	}
+
+	/**
+	 * @param schemaCache
+	 * @param poolSize    maximum number of idle buffers kept for reuse
+	 */
+	public EventSerializer(SchemaCache schemaCache, int poolSize) {
+		this.schemaCache = schemaCache;
+		this.bufferPool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+	}
+
+	/**
+	 * Serializes a record into a buffer that the caller owns
+	 *
+	 * @param schemaId ID of the schema the record conforms to
+	 * @param record
+	 * @return event ready to be published
+	 * @throws EventSerializeException
+	 */
+	public ProducerEvent serialize(String schemaId, GenericRecord record) throws EventSerializeException {
+		BufferOutputStream out = encode(schemaId, record, new byte[INITIAL_BUFFER_SIZE]);
+		byte[] buffer = out.buffer;
+		int size = out.size;
+		out.detach();
+		// The buffer is not shared, only copy it if it's mostly empty
+		if (size < buffer.length / 2) {
+			buffer = Arrays.copyOf(buffer, size);
+		}
+		return buildEvent(schemaId, buffer, size);
+	}
+
+	/**
+	 * Serializes a record into a pooled buffer
+	 *
+	 * @param schemaId ID of the schema the record conforms to
+	 * @param record
+	 * @return event and its buffer, which must be released once the event has been sent
+	 * @throws EventSerializeException
+	 */
+	public PooledEvent serializePooled(String schemaId, GenericRecord record) throws EventSerializeException {
+		byte[] buffer = bufferPool.poll();
+		BufferOutputStream out = encode(schemaId, record, buffer != null ? buffer : new byte[INITIAL_BUFFER_SIZE]);
+		// The buffer may have been replaced by a larger one while encoding
+		buffer = out.buffer;
+		int size = out.size;
+		out.detach();
+		return new PooledEvent(buildEvent(schemaId, buffer, size), buffer);
+	}
+
+	/**
+	 * @return stream holding the encoded record, to be detached once its buffer has been read
+	 */
+	private BufferOutputStream encode(String schemaId, GenericRecord record, byte[] buffer)
+			throws EventSerializeException {
+		CachedSchema cachedSchema;
+		try {
+			cachedSchema = schemaCache.get(schemaId);
+		} catch (SchemaResolutionException e) {
+			throw new EventSerializeException("Failed to resolve event schema: " + e.getMessage(), e);
+		}
+		EncodeState state = encodeState.get();
+		BinaryEncoder encoder = state.prepareEncoder(buffer);
+		try {
+			cachedSchema.getDatumWriter().write(record, encoder);
+		} catch (IOException | RuntimeException e) {
+			recycle(state.out.buffer);
+			state.out.detach();
+			throw new EventSerializeException("Failed to serialize record: " + e.getMessage(), e);
+		}
+		return state.out;
+	}
+
+	private static ProducerEvent buildEvent(String schemaId, byte[] buffer, int size) {
+		// Wrap the buffer rather than copying it, it is never written again while the event is alive
+		return ProducerEvent.newBuilder().setSchemaId(schemaId)
+				.setPayload(UnsafeByteOperations.unsafeWrap(buffer, 0, size)).build();
+	}
+
+	private void recycle(byte[] buffer) {
+		if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+			bufferPool.offer(buffer);
+		}
+	}
+
+	/**
+	 * Event serialized into a pooled buffer
+	 */
+	public class PooledEvent {
+		private final ProducerEvent event;
+		private byte[] buffer;
+
+		private PooledEvent(ProducerEvent event, byte[] buffer) {
+			this.event = event;
+			this.buffer = buffer;
+		}
+
+		public ProducerEvent getEvent() {
+			return event;
+		}
+
+		/**
+		 * Returns the buffer to the pool. The event must not be used anymore, gRPC must be done with it: call this
+		 * once the server answered the request that carried the event or once the stream failed.
+		 */
+		public void release() {
+			if (buffer != null) {
+				recycle(buffer);
+				buffer = null;
+			}
+		}
+	}
+
+	/**
+	 * Reusable encoder and its output stream
+	 */
+	private static final class EncodeState {
+		private final BufferOutputStream out = new BufferOutputStream();
+		private BinaryEncoder encoder;
+
+		private BinaryEncoder prepareEncoder(byte[] buffer) {
+			out.attach(buffer);
+			// A direct encoder has no buffer of its own, so nothing is left to flush and nothing is allocated
+			encoder = EncoderFactory.get().directBinaryEncoder(out, encoder);
+			return encoder;
+		}
+	}
+
+	/**
+	 * Unsynchronized output stream writing into a growable array
+	 */
+	private static final class BufferOutputStream extends OutputStream {
+		private byte[] buffer;
+		private int size;
+
+		private void attach(byte[] buffer) {
+			this.buffer = buffer;
+			this.size = 0;
+		}
+
+		/**
+		 * Drops the reference to the buffer, which now belongs to an event
+		 */
+		private void detach() {
+			this.buffer = null;
+			this.size = 0;
+		}
+
+		@Override
+		public void write(int b) {
+			ensureCapacity(1);
+			buffer[size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			ensureCapacity(length);
+			System.arraycopy(bytes, offset, buffer, size, length);
+			size += length;
+		}
+
+		private void ensureCapacity(int length) {
+			if (size + length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(size + length, buffer.length * 2));
+			}
+		}
+	}
+
+	public static class EventSerializeException extends Exception {
+		private static final long serialVersionUID = -5871360470922861457L;
+
+		public EventSerializeException(String message, Exception causedBy) {
+			super(message, causedBy);
+		}
+	};
+}
@@ -0,0 +1,168 @@
+package org.salesforce.demo.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+
+/**
+ * Lookup tables that translate the bitmap-compressed field lists of a Change Event Header (nulledFields,
+ * diffFields and changedFields) into field names.
+ * Tables are compiled once per schema: field positions map straight to names, and compound fields (Name,
+ * BillingAddress...) hold a child table with precomputed full names such as {@code BillingAddress.Street}.
+ * Expanding a bitmap is then a single pass over its hex digits.
+ */
+public class FieldBitmapIndex {
+
+	private final String[] fieldNames;
+	private final CompoundField[] compoundFields;
+
+	public FieldBitmapIndex(Schema schema) {
+		List<Schema.Field> fields = schema.getFields();
+		fieldNames = new String[fields.size()];
+		compoundFields = new CompoundField[fields.size()];
+		for (int i = 0; i < fieldNames.length; i++) {
+			Schema.Field field = fields.get(i);
+			fieldNames[i] = field.name();
+			Schema childSchema = getValueSchema(field.schema());
+			// make sure we're really dealing with compound field
+			if (childSchema.getType() == Schema.Type.RECORD) {
+				List<Schema.Field> childFields = childSchema.getFields();
+				String[] childNames = new String[childFields.size()];
+				for (int j = 0; j < childNames.length; j++) {
+					childNames[j] = field.name() + "." + childFields.get(j).name();
+				}
+				compoundFields[i] = new CompoundField(field.name(), childNames);
+			}
+		}
+	}
+
+	/**
+	 * Translate a bitmap-compressed field list into its expanded representation as a list of field names.
+	 * The top level bitmap ({@code 0x...}) is expanded first, followed by the nested compound field bitmaps
+	 * ({@code parentPos-0x...}). Values that are not bitmaps are kept as is.
+	 *
+	 * @param values raw field list values
+	 * @return list of field names
+	 */
+	public List<String> expand(List<? extends CharSequence> values) {
+		List<String> fields = new ArrayList<>(values.size() + 4);
+		for (CharSequence value : values) {
+			String entry = value.toString();
+			if (entry.startsWith("0x")) {
+				appendFieldNames(entry, 2, fieldNames, fields);
+			} else {
+				int separator = entry.indexOf('-');
+				if (separator <= 0 || !appendCompoundFieldNames(entry, separator, fields)) {
+					fields.add(entry);
+				}
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Expands a {@code parentPos-0xchildBitmap} value
+	 *
+	 * @return false if the value doesn't refer to a compound field
+	 */
+	private boolean appendCompoundFieldNames(String entry, int separator, List<String> fields) {
+		int parentPos = 0;
+		for (int i = 0; i < separator; i++) {
+			int digit = entry.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
+			}
+			parentPos = parentPos * 10 + digit;
+		}
+		if (parentPos >= compoundFields.length || compoundFields[parentPos] == null) {
+			return false;
+		}
+		CompoundField compound = compoundFields[parentPos];
+		int bitmapStart = separator + 1;
+		if (entry.startsWith("0x", bitmapStart)) {
+			bitmapStart += 2;
+		}
+		int count = countFields(entry, bitmapStart, compound.childNames.length);
+		if (count == 0) {
+			return false;
+		}
+		// when all nested fields under a compound got nulled out at once by customer,
+		// we recognize the top level field instead of trying to list every single
+		// nested field
+		if (count == compound.childNames.length) {
+			fields.add(compound.name);
+		} else {
+			appendFieldNames(entry, bitmapStart, compound.childNames, fields);
+		}
+		return true;
+	}
+
+	/**
+	 * Appends the names of the fields whose bit is set in a hex bitmap. The rightmost hex digit holds positions
+	 * 0 to 3, so digits are read right to left to list fields in schema order.
+	 */
+	private static void appendFieldNames(String bitmap, int start, String[] names, List<String> fields) {
+		int position = 0;
+		for (int i = bitmap.length() - 1; i >= start && position < names.length; i--, position += 4) {
+			int digit = Character.digit(bitmap.charAt(i), 16);
+			while (digit > 0) {
+				int fieldPos = position + Integer.numberOfTrailingZeros(digit);
+				if (fieldPos < names.length) {
+					fields.add(names[fieldPos]);
+				}
+				digit &= digit - 1;
+			}
+		}
+	}
+
+	private static int countFields(String bitmap, int start, int fieldCount) {
+		int count = 0;
+		int position = 0;
+		for (int i = bitmap.length() - 1; i >= start && position < fieldCount; i--, position += 4) {
+			int digit = Character.digit(bitmap.charAt(i), 16);
+			if (digit > 0) {
+				// ignore bits beyond the last field
+				int validBits = Math.min(4, fieldCount - position);
+				count += Integer.bitCount(digit & ((1 << validBits) - 1));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the value type of an "optional" schema, which is a union of [null,
+	 * valueSchema]
+	 *
+	 * @param schema
+	 * @return value schema or the original schema if it does not look like optional
+	 */
+	private static Schema getValueSchema(Schema schema) {
+		if (schema.getType() == Schema.Type.UNION) {
+			List<Schema> types = schema.getTypes();
+			if (types.size() == 2 && types.get(0).getType() == Type.NULL) {
+				// Optional is a union of (null, <type>), return the underlying type
+				return types.get(1);
+			} else if (types.size() == 2 && types.get(0).getType() == Type.STRING) {
+				// for required Switchable_PersonName
+				return schema.getTypes().get(1);
+			} else if (types.size() == 3 && types.get(0).getType() == Type.NULL
+					&& types.get(1).getType() == Type.STRING) {
+				// for optional Switchable_PersonName
+				return schema.getTypes().get(2);
+			}
+		}
+		return schema;
+	}
+
+	private static class CompoundField {
+		private final String name;
+		private final String[] childNames;
+
+		private CompoundField(String name, String[] childNames) {
+			this.name = name;
+			this.childNames = childNames;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.salesforce.demo.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+
+/**
+ * Top-level fields of the event payload that a subscription reads.
+ * Events are decoded with a reader schema restricted to these fields, plus the Change Event Header when the event
+ * has one: the other fields are skipped by the decoder and are absent from the payload records. Compound fields
+ * such as {@code BillingAddress} are projected as a whole.
+ */
+public final class FieldProjection {
+	private static final String HEADER_FIELD_NAME = "ChangeEventHeader";
+
+	private final Set<String> fieldNames;
+
+	private FieldProjection(Set<String> fieldNames) {
+		this.fieldNames = fieldNames;
+	}
+
+	/**
+	 * @param fieldNames top-level field names, names that are not in an event schema are ignored
+	 * @return projection on the fields
+	 */
+	public static FieldProjection of(String... fieldNames) {
+		return of(Arrays.asList(fieldNames));
+	}
+
+	public static FieldProjection of(Collection<String> fieldNames) {
+		return new FieldProjection(Collections.unmodifiableSet(new HashSet<>(fieldNames)));
+	}
+
+	public Set<String> getFieldNames() {
+		return fieldNames;
+	}
+
+	/**
+	 * Derives the reader schema of the projection
+	 *
+	 * @param writerSchema schema the events were written with
+	 * @return record schema with the projected fields of the writer schema, in the same order
+	 */
+	public Schema project(Schema writerSchema) {
+		List<Field> fields = new ArrayList<>();
+		for (Field field : writerSchema.getFields()) {
+			if (field.name().equals(HEADER_FIELD_NAME) || fieldNames.contains(field.name())) {
+				// Fields can't be shared between schemas
+				fields.add(new Field(field.name(), field.schema(), field.doc(), field.defaultVal()));
+			}
+		}
+		return Schema.createRecord(writerSchema.getName(), writerSchema.getDoc(), writerSchema.getNamespace(),
+				writerSchema.isError(), fields);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof FieldProjection && fieldNames.equals(((FieldProjection) other).fieldNames);
+	}
+
+	@Override
+	public int hashCode() {
+		return fieldNames.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "FieldProjection " + fieldNames;
+	}
+}
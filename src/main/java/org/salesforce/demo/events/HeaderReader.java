@@ -0,0 +1,59 @@
+package org.salesforce.demo.events;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Decoder;
+
+/**
+ * Decodes the Change Event Header of an event without decoding the record fields.
+ * This is a projection of the event schema on its header: the fields that precede the header are skipped, the
+ * header is decoded and the record fields that follow are never read. Built once per schema.
+ */
+public class HeaderReader {
+	private final Schema[] skippedFields;
+	private final GenericDatumReader<GenericRecord> headerReader;
+
+	HeaderReader(Schema schema) {
+		Field headerField = schema.getField("ChangeEventHeader");
+		if (headerField == null || headerField.schema().getType() != Type.RECORD) {
+			// Not a change event
+			skippedFields = null;
+			headerReader = null;
+			return;
+		}
+		List<Field> fields = schema.getFields();
+		skippedFields = new Schema[headerField.pos()];
+		for (int i = 0; i < skippedFields.length; i++) {
+			skippedFields[i] = fields.get(i).schema();
+		}
+		headerReader = new GenericDatumReader<GenericRecord>(headerField.schema());
+	}
+
+	/**
+	 * @return whether events of this schema have a Change Event Header
+	 */
+	public boolean hasHeader() {
+		return headerReader != null;
+	}
+
+	/**
+	 * @param decoder decoder positioned at the start of the payload
+	 * @return header record or null if the schema has no header
+	 * @throws IOException
+	 */
+	public GenericRecord read(Decoder decoder) throws IOException {
+		if (headerReader == null) {
+			return null;
+		}
+		for (Schema skippedField : skippedFields) {
+			GenericDatumReader.skip(skippedField, decoder);
+		}
+		return headerReader.read(null, decoder);
+	}
+}
@@ -0,0 +1,19 @@
+package org.salesforce.demo.events;
+
+/**
+ * Change event header field used to keep related events in order when they are processed in parallel
+ */
+public enum OrderingKey {
+	/**
+	 * Events of the same record are processed in order, keyed by the first ID of the recordIds field
+	 */
+	RECORD_ID,
+	/**
+	 * Events of the same transaction are processed in order
+	 */
+	TRANSACTION_KEY,
+	/**
+	 * No ordering, events are processed by whichever worker is free
+	 */
+	NONE
+}
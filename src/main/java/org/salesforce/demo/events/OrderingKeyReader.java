@@ -0,0 +1,87 @@
+package org.salesforce.demo.events;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.io.Decoder;
+
+/**
+ * Reads the ordering key of an event without decoding the whole payload.
+ * The fields that precede the key are skipped and decoding stops as soon as the key is read. For change events the
+ * header is the first field of the payload and the keys are near the start of the header, so only a few bytes are
+ * read. Built once per schema.
+ */
+public class OrderingKeyReader {
+	private final Schema[] skippedFields;
+	private final Schema[] headerFields;
+	private final int recordIdsPosition;
+	private final int transactionKeyPosition;
+
+	OrderingKeyReader(Schema schema) {
+		List<Field> fields = schema.getFields();
+		Field headerField = schema.getField("ChangeEventHeader");
+		Schema headerSchema = headerField != null ? headerField.schema() : null;
+		if (headerSchema == null || headerSchema.getType() != Type.RECORD) {
+			// Not a change event
+			skippedFields = null;
+			headerFields = null;
+			recordIdsPosition = -1;
+			transactionKeyPosition = -1;
+			return;
+		}
+		skippedFields = new Schema[headerField.pos()];
+		for (int i = 0; i < skippedFields.length; i++) {
+			skippedFields[i] = fields.get(i).schema();
+		}
+		List<Field> headerFieldList = headerSchema.getFields();
+		headerFields = new Schema[headerFieldList.size()];
+		for (int i = 0; i < headerFields.length; i++) {
+			headerFields[i] = headerFieldList.get(i).schema();
+		}
+		Field recordIds = headerSchema.getField("recordIds");
+		recordIdsPosition = recordIds != null && recordIds.schema().getType() == Type.ARRAY
+				&& recordIds.schema().getElementType().getType() == Type.STRING ? recordIds.pos() : -1;
+		Field transactionKey = headerSchema.getField("transactionKey");
+		transactionKeyPosition = transactionKey != null && transactionKey.schema().getType() == Type.STRING
+				? transactionKey.pos()
+				: -1;
+	}
+
+	/**
+	 * @param decoder     decoder positioned at the start of the payload
+	 * @param orderingKey
+	 * @return key value or null if the schema or the event has no such key
+	 * @throws IOException
+	 */
+	public String read(Decoder decoder, OrderingKey orderingKey) throws IOException {
+		int position;
+		switch (orderingKey) {
+		case RECORD_ID:
+			position = recordIdsPosition;
+			break;
+		case TRANSACTION_KEY:
+			position = transactionKeyPosition;
+			break;
+		default:
+			position = -1;
+		}
+		if (position < 0) {
+			return null;
+		}
+		for (Schema skippedField : skippedFields) {
+			GenericDatumReader.skip(skippedField, decoder);
+		}
+		for (int i = 0; i < position; i++) {
+			GenericDatumReader.skip(headerFields[i], decoder);
+		}
+		if (orderingKey == OrderingKey.TRANSACTION_KEY) {
+			return decoder.readString();
+		}
+		// Events that change several records at once are keyed by their first record
+		return decoder.readArrayStart() > 0 ? decoder.readString() : null;
+	}
+}
@@ -0,0 +1,61 @@
+package org.salesforce.demo.events;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * Replay ID conversions.
+ * Replay IDs are sent by the server as opaque bytes. Current IDs are 8-byte big-endian numbers, which are read
+ * straight from the ByteString without copying. IDs of any other length are kept as bytes and have no numeric value.
+ */
+public final class ReplayId {
+
+	/**
+	 * Numeric value of a replay ID that can't be represented as a long
+	 */
+	public static final long OPAQUE = -1L;
+
+	private ReplayId() {
+	}
+
+	/**
+	 * @param replayId
+	 * @return whether the replay ID has a numeric value
+	 */
+	public static boolean isNumeric(ByteString replayId) {
+		return replayId.size() == Long.BYTES;
+	}
+
+	/**
+	 * Reads the numeric value of a replay ID
+	 * 
+	 * @param replayId
+	 * @return replay ID as a long or {@link #OPAQUE} if it isn't an 8-byte ID
+	 */
+	public static long toLong(ByteString replayId) {
+		if (!isNumeric(replayId)) {
+			return OPAQUE;
+		}
+		long value = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			value = (value << 8) | (replayId.byteAt(i) & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * Converts a numeric replay ID to the bytes expected by the Pub/Sub API
+	 * 
+	 * @param replayId
+	 * @return replay ID bytes
+	 */
+	public static ByteString fromLong(long replayId) {
+		byte[] bytes = new byte[Long.BYTES];
+		for (int i = Long.BYTES - 1; i >= 0; i--) {
+			bytes[i] = (byte) replayId;
+			replayId >>>= 8;
+		}
+		// The array is never modified after this point so it can be wrapped without a copy
+		return UnsafeByteOperations.unsafeWrap(bytes);
+	}
+}
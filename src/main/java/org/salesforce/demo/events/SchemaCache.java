@@ -0,0 +1,333 @@
+package org.salesforce.demo.events;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.salesforce.demo.metrics.Counter;
+import org.salesforce.demo.metrics.Histogram;
+import org.salesforce.demo.metrics.MetricsRegistry;
+
+/**
+ * Concurrent cache of event schemas keyed by schema ID.
+ * A cache miss triggers a single schema load per schema ID no matter how many threads request it at the same time.
+ * Entries are evicted when they haven't been used for longer than the TTL or when the cache grows beyond its
+ * maximum size, in which case the least recently used entry goes first.
+ * Threads that must not block, such as the gRPC callback threads, use {@link #getAsync} and {@link #getIfLoaded}:
+ * schemas are then loaded on the load executor.
+ */
+public class SchemaCache {
+	private static final Logger logger = Logger.getLogger(SchemaCache.class.getName());
+
+	private final SchemaLoader loader;
+	private final int maxSize;
+	private final long ttlNanos;
+	private final Map<String, CompletableFuture<CachedSchema>> entries = new ConcurrentHashMap<>();
+	private final Counter hits;
+	private final Counter misses;
+	private final Histogram loadMillis;
+	private final Executor loadExecutor;
+
+	/**
+	 * @param loader     retrieves schemas that are not cached yet
+	 * @param maxSize    maximum number of cached schemas
+	 * @param ttlMinutes time after which an unused schema is evicted
+	 */
+	public SchemaCache(SchemaLoader loader, int maxSize, long ttlMinutes) {
+		this(loader, maxSize, ttlMinutes, new MetricsRegistry());
+	}
+
+	/**
+	 * @param loader     retrieves schemas that are not cached yet
+	 * @param maxSize    maximum number of cached schemas
+	 * @param ttlMinutes time after which an unused schema is evicted
+	 * @param metrics    registry of the cache hit, miss and load time metrics
+	 */
+	public SchemaCache(SchemaLoader loader, int maxSize, long ttlMinutes, MetricsRegistry metrics) {
+		this(loader, maxSize, ttlMinutes, metrics, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param loader       retrieves schemas that are not cached yet
+	 * @param maxSize      maximum number of cached schemas
+	 * @param ttlMinutes   time after which an unused schema is evicted
+	 * @param metrics      registry of the cache hit, miss and load time metrics
+	 * @param loadExecutor runs the loads started by {@link #getAsync}
+	 */
+	public SchemaCache(SchemaLoader loader, int maxSize, long ttlMinutes, MetricsRegistry metrics,
+			Executor loadExecutor) {
+		this.loadExecutor = loadExecutor;
+		this.loader = loader;
+		this.maxSize = Math.max(1, maxSize);
+		this.ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+		this.hits = metrics.counter("schemaCache.hits");
+		this.misses = metrics.counter("schemaCache.misses");
+		this.loadMillis = metrics.histogram("schemaCache.loadMillis");
+		metrics.gauge("schemaCache.size", this::size);
+	}
+
+	/**
+	 * Gets a schema from the cache, loading it if needed
+	 *
+	 * @param schemaId
+	 * @return cached schema
+	 * @throws SchemaResolutionException
+	 */
+	public CachedSchema get(String schemaId) throws SchemaResolutionException {
+		CompletableFuture<CachedSchema> future = lookup(schemaId, null);
+		try {
+			return touch(schemaId, future, future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SchemaResolutionException("Interrupted while loading schema " + schemaId, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw new SchemaResolutionException("Failed to load schema " + schemaId + ": " + cause.getMessage(),
+					cause instanceof Exception ? (Exception) cause : e);
+		}
+	}
+
+	/**
+	 * Gets a schema from the cache without blocking, loading it on the load executor if needed
+	 *
+	 * @param schemaId
+	 * @return future completed with the cached schema, or exceptionally if it failed to load
+	 */
+	public CompletableFuture<CachedSchema> getAsync(String schemaId) {
+		return lookup(schemaId, loadExecutor);
+	}
+
+	/**
+	 * @param schemaId
+	 * @return cached schema or null if it isn't loaded yet, no load is started
+	 */
+	public CachedSchema getIfLoaded(String schemaId) {
+		CompletableFuture<CachedSchema> future = entries.get(schemaId);
+		if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+			return null;
+		}
+		hits.increment();
+		return touch(schemaId, future, future.join());
+	}
+
+	/**
+	 * @return number of cached schemas
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Finds the entry of a schema, starting a single load on a miss
+	 *
+	 * @param schemaId
+	 * @param executor runs the load or null to load on the calling thread
+	 */
+	private CompletableFuture<CachedSchema> lookup(String schemaId, Executor executor) {
+		CompletableFuture<CachedSchema> future = entries.get(schemaId);
+		if (future == null) {
+			CompletableFuture<CachedSchema> newFuture = new CompletableFuture<>();
+			future = entries.putIfAbsent(schemaId, newFuture);
+			if (future == null) {
+				misses.increment();
+				if (executor == null) {
+					load(schemaId, newFuture);
+				} else {
+					try {
+						executor.execute(() -> load(schemaId, newFuture));
+					} catch (RejectedExecutionException e) {
+						entries.remove(schemaId, newFuture);
+						newFuture.completeExceptionally(e);
+					}
+				}
+				return newFuture;
+			}
+		}
+		hits.increment();
+		return future;
+	}
+
+	/**
+	 * Records an access to an entry, dropping it if it expired so that the next call reloads it
+	 */
+	private CachedSchema touch(String schemaId, CompletableFuture<CachedSchema> future, CachedSchema entry) {
+		long now = System.nanoTime();
+		if (now - entry.lastAccess > ttlNanos) {
+			entries.remove(schemaId, future);
+		} else {
+			entry.lastAccess = now;
+		}
+		return entry;
+	}
+
+	private void load(String schemaId, CompletableFuture<CachedSchema> future) {
+		try {
+			logger.info("Loading schema " + schemaId + "...");
+			long loadStart = System.nanoTime();
+			Schema schema = loader.load(schemaId);
+			loadMillis.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadStart));
+			future.complete(new CachedSchema(schemaId, schema));
+			evictIfNeeded();
+		} catch (Throwable t) {
+			// Don't cache failures, the next call retries the load. Waiters must be released even on errors.
+			entries.remove(schemaId, future);
+			future.completeExceptionally(t);
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+		}
+	}
+
+	private void evictIfNeeded() {
+		while (entries.size() > maxSize) {
+			String eldestId = null;
+			long eldestAccess = Long.MAX_VALUE;
+			for (Map.Entry<String, CompletableFuture<CachedSchema>> entry : entries.entrySet()) {
+				CachedSchema cached = entry.getValue().getNow(null);
+				if (cached != null && cached.lastAccess < eldestAccess) {
+					eldestId = entry.getKey();
+					eldestAccess = cached.lastAccess;
+				}
+			}
+			if (eldestId == null) {
+				return;
+			}
+			entries.remove(eldestId);
+		}
+	}
+
+	/**
+	 * Retrieves a schema from the Pub/Sub API
+	 */
+	@FunctionalInterface
+	public interface SchemaLoader {
+		Schema load(String schemaId) throws Exception;
+	}
+
+	/**
+	 * Parsed schema along with a datum reader that is ready to decode events written with it.
+	 * When a class generated from this exact schema is on the classpath, events are decoded into instances of that
+	 * class rather than into generic records.
+	 */
+	public static class CachedSchema {
+		private final String schemaId;
+		private final Schema schema;
+		private final GenericDatumReader<GenericRecord> datumReader;
+		private final GenericDatumWriter<GenericRecord> datumWriter;
+		private final FieldBitmapIndex bitmapIndex;
+		private final OrderingKeyReader orderingKeyReader;
+		private final HeaderReader headerReader;
+		private final Map<FieldProjection, GenericDatumReader<GenericRecord>> projectedReaders =
+				new ConcurrentHashMap<>();
+		private volatile long lastAccess;
+
+		CachedSchema(String schemaId, Schema schema) {
+			this.schemaId = schemaId;
+			this.schema = schema;
+			Schema specificSchema = findSpecificSchema(schema);
+			if (specificSchema != null) {
+				logger.info("Using generated class " + schema.getFullName() + " for schema " + schemaId);
+				// The generated schema reads strings as String rather than Utf8
+				this.datumReader = new SpecificDatumReader<GenericRecord>(specificSchema);
+				this.datumWriter = new SpecificDatumWriter<GenericRecord>(specificSchema);
+			} else {
+				this.datumReader = new GenericDatumReader<GenericRecord>(schema);
+				this.datumWriter = new GenericDatumWriter<GenericRecord>(schema);
+			}
+			this.bitmapIndex = new FieldBitmapIndex(schema);
+			this.orderingKeyReader = new OrderingKeyReader(schema);
+			this.headerReader = new HeaderReader(schema);
+			this.lastAccess = System.nanoTime();
+		}
+
+		public String getSchemaId() {
+			return schemaId;
+		}
+
+		public Schema getSchema() {
+			return schema;
+		}
+
+		public GenericDatumReader<GenericRecord> getDatumReader() {
+			return datumReader;
+		}
+
+		public GenericDatumWriter<GenericRecord> getDatumWriter() {
+			return datumWriter;
+		}
+
+		public FieldBitmapIndex getBitmapIndex() {
+			return bitmapIndex;
+		}
+
+		public OrderingKeyReader getOrderingKeyReader() {
+			return orderingKeyReader;
+		}
+
+		public HeaderReader getHeaderReader() {
+			return headerReader;
+		}
+
+		/**
+		 * Gets a datum reader that only decodes the fields of a projection. The reader is built once per projection
+		 * and resolves the projected schema against the schema of this entry, which keeps its resolving decoder
+		 * cached as well.
+		 *
+		 * @param projection
+		 * @return datum reader producing records restricted to the projected fields
+		 */
+		public GenericDatumReader<GenericRecord> getProjectedReader(FieldProjection projection) {
+			return projectedReaders.computeIfAbsent(projection,
+					key -> new GenericDatumReader<GenericRecord>(schema, key.project(schema)));
+		}
+
+		/**
+		 * Looks for a class generated from the schema
+		 *
+		 * @param schema
+		 * @return schema of the generated class or null if there is no matching class
+		 */
+		private static Schema findSpecificSchema(Schema schema) {
+			if (schema.getType() != Schema.Type.RECORD) {
+				return null;
+			}
+			Class<?> specificClass = SpecificData.get().getClass(schema);
+			if (specificClass == null || !SpecificRecord.class.isAssignableFrom(specificClass)) {
+				return null;
+			}
+			Schema specificSchema = SpecificData.get().getSchema(specificClass);
+			// The class must have been generated from this version of the schema. Canonical forms ignore properties
+			// such as the Java string type that don't change the encoding.
+			if (SchemaNormalization.parsingFingerprint64(specificSchema) != SchemaNormalization
+					.parsingFingerprint64(schema)) {
+				logger.warning("Generated class " + specificClass.getName()
+						+ " doesn't match the event schema, regenerate it to decode events into typed records");
+				return null;
+			}
+			return specificSchema;
+		}
+	}
+
+	public static class SchemaResolutionException extends Exception {
+		private static final long serialVersionUID = -3164402925283657718L;
+
+		public SchemaResolutionException(String message, Exception causedBy) {
+			super(message, causedBy);
+		}
+	};
+}
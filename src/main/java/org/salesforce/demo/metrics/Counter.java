@@ -0,0 +1,26 @@
+package org.salesforce.demo.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter. Updates are lock-free and spread over cells, so concurrent threads don't contend on a single
+ * value.
+ */
+public class Counter {
+	private final LongAdder value = new LongAdder();
+
+	public void increment() {
+		value.increment();
+	}
+
+	public void add(long amount) {
+		value.add(amount);
+	}
+
+	/**
+	 * @return total since the counter was created
+	 */
+	public long get() {
+		return value.sum();
+	}
+}
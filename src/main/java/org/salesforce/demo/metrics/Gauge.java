@@ -0,0 +1,9 @@
+package org.salesforce.demo.metrics;
+
+/**
+ * Value sampled when metrics are exported
+ */
+@FunctionalInterface
+public interface Gauge {
+	long get();
+}
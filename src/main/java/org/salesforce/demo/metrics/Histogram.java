@@ -0,0 +1,68 @@
+package org.salesforce.demo.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values with a bounded relative error, in the manner of HdrHistogram.
+ * Each power of two is split into 32 linear buckets, so a value is reported within about 3% of its actual value
+ * whatever its magnitude. Recording a value is lock-free and allocation-free: it increments one bucket. Histograms
+ * cover an export interval, taking a snapshot resets them.
+ */
+public class Histogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param value negative values are recorded as zero
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketIndex(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @return values recorded since the previous snapshot
+	 */
+	public HistogramSnapshot snapshotAndReset() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			if (buckets.get(i) != 0) {
+				counts[i] = buckets.getAndSet(i, 0);
+			}
+		}
+		return new HistogramSnapshot(counts, sum.sumThenReset(), max.getThenReset());
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (int) (SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + ((value >>> shift) - SUB_BUCKET_COUNT));
+	}
+
+	/**
+	 * @param index
+	 * @return highest value that falls in the bucket
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		long lowerBound = (SUB_BUCKET_COUNT + subBucket) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,53 @@
+package org.salesforce.demo.metrics;
+
+/**
+ * Values recorded by a histogram during an export interval
+ */
+public class HistogramSnapshot {
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long sum, long max) {
+		this.counts = counts;
+		long total = 0;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		this.count = total;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return value below which the given percentage of values fall, within the precision of the histogram
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(Histogram.bucketUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+}
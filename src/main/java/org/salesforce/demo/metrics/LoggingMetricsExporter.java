@@ -0,0 +1,50 @@
+package org.salesforce.demo.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default exporter, logs the metrics with java.util.logging. Counters are logged with their rate over the interval
+ * and histograms with their percentiles.
+ */
+public class LoggingMetricsExporter implements MetricsExporter {
+	private static final Logger logger = Logger.getLogger(LoggingMetricsExporter.class.getName());
+
+	private final Map<MetricName, Long> previousCounters = new HashMap<>();
+	private long previousTimestampMillis = 0;
+
+	@Override
+	public void export(MetricsSnapshot snapshot) {
+		if (!logger.isLoggable(Level.INFO)) {
+			return;
+		}
+		double intervalSeconds = previousTimestampMillis == 0 ? 0
+				: (snapshot.getTimestampMillis() - previousTimestampMillis) / 1000.0;
+		previousTimestampMillis = snapshot.getTimestampMillis();
+
+		StringBuilder message = new StringBuilder("Metrics:");
+		for (Map.Entry<MetricName, Long> counter : snapshot.getCounters().entrySet()) {
+			long value = counter.getValue();
+			Long previous = previousCounters.put(counter.getKey(), value);
+			message.append("\n  ").append(counter.getKey()).append(" = ").append(value);
+			if (previous != null && intervalSeconds > 0) {
+				message.append(String.format(" (%.1f/s)", (value - previous) / intervalSeconds));
+			}
+		}
+		for (Map.Entry<MetricName, Long> gauge : snapshot.getGauges().entrySet()) {
+			message.append("\n  ").append(gauge.getKey()).append(" = ").append(gauge.getValue());
+		}
+		for (Map.Entry<MetricName, HistogramSnapshot> histogram : snapshot.getHistograms().entrySet()) {
+			HistogramSnapshot values = histogram.getValue();
+			if (values.getCount() == 0) {
+				continue;
+			}
+			message.append(String.format("\n  %s count=%d mean=%.1f p50=%d p99=%d max=%d", histogram.getKey(),
+					values.getCount(), values.getMean(), values.getPercentile(50), values.getPercentile(99),
+					values.getMax()));
+		}
+		logger.info(message.toString());
+	}
+}
@@ -0,0 +1,73 @@
+package org.salesforce.demo.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Name of a metric and the tags that tell apart its instances, such as the topic name
+ */
+public final class MetricName {
+	private final String name;
+	private final Map<String, String> tags;
+
+	/**
+	 * @param name
+	 * @param tags alternating tag keys and values
+	 */
+	public MetricName(String name, String... tags) {
+		if (tags.length % 2 != 0) {
+			throw new IllegalArgumentException("Tags of " + name + " must be key/value pairs");
+		}
+		Map<String, String> tagMap = new TreeMap<>();
+		for (int i = 0; i < tags.length; i += 2) {
+			tagMap.put(tags[i], tags[i + 1]);
+		}
+		this.name = name;
+		this.tags = Collections.unmodifiableMap(tagMap);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return tags sorted by key
+	 */
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof MetricName)) {
+			return false;
+		}
+		MetricName metricName = (MetricName) other;
+		return name.equals(metricName.name) && tags.equals(metricName.tags);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, tags);
+	}
+
+	@Override
+	public String toString() {
+		if (tags.isEmpty()) {
+			return name;
+		}
+		StringBuilder builder = new StringBuilder(name).append('{');
+		for (Map.Entry<String, String> tag : tags.entrySet()) {
+			if (builder.charAt(builder.length() - 1) != '{') {
+				builder.append(',');
+			}
+			builder.append(tag.getKey()).append('=').append(tag.getValue());
+		}
+		return builder.append('}').toString();
+	}
+}
@@ -0,0 +1,9 @@
+package org.salesforce.demo.metrics;
+
+/**
+ * Sends metrics to a monitoring system. Called periodically from a single thread.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+	void export(MetricsSnapshot snapshot);
+}
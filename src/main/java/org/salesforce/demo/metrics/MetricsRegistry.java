@@ -0,0 +1,136 @@
+package org.salesforce.demo.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the metrics of the client. Metrics are created on first use and then looked up by name and tags, callers
+ * keep a reference to them so that recording a value doesn't go through the registry.
+ */
+public class MetricsRegistry {
+	private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+
+	private final ConcurrentMap<MetricName, Counter> counters;
+	private final ConcurrentMap<MetricName, Histogram> histograms;
+	private final ConcurrentMap<MetricName, Gauge> gauges;
+	private final String[] commonTags;
+
+	public MetricsRegistry() {
+		this(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new String[0]);
+	}
+
+	private MetricsRegistry(ConcurrentMap<MetricName, Counter> counters,
+			ConcurrentMap<MetricName, Histogram> histograms, ConcurrentMap<MetricName, Gauge> gauges,
+			String[] commonTags) {
+		this.counters = counters;
+		this.histograms = histograms;
+		this.gauges = gauges;
+		this.commonTags = commonTags;
+	}
+
+	/**
+	 * Returns a view of the registry that adds tags to the metrics it creates, such as the tenant of a client. The
+	 * view shares the metrics of the registry: snapshots of either contain all metrics.
+	 *
+	 * @param tags alternating tag keys and values
+	 * @return tagged view
+	 */
+	public MetricsRegistry withTags(String... tags) {
+		return new MetricsRegistry(counters, histograms, gauges, concat(commonTags, tags));
+	}
+
+	/**
+	 * @param name
+	 * @param tags alternating tag keys and values
+	 * @return counter with that name and tags
+	 */
+	public Counter counter(String name, String... tags) {
+		return counters.computeIfAbsent(new MetricName(name, concat(commonTags, tags)), key -> new Counter());
+	}
+
+	/**
+	 * @param name
+	 * @param tags alternating tag keys and values
+	 * @return histogram with that name and tags
+	 */
+	public Histogram histogram(String name, String... tags) {
+		return histograms.computeIfAbsent(new MetricName(name, concat(commonTags, tags)), key -> new Histogram());
+	}
+
+	/**
+	 * Registers a gauge, replacing any gauge with the same name and tags
+	 *
+	 * @param name
+	 * @param gauge
+	 * @param tags  alternating tag keys and values
+	 */
+	public void gauge(String name, Gauge gauge, String... tags) {
+		gauges.put(new MetricName(name, concat(commonTags, tags)), gauge);
+	}
+
+	/**
+	 * Removes a gauge, whose value would otherwise keep a reference to its source
+	 *
+	 * @param name
+	 * @param tags alternating tag keys and values
+	 */
+	public void removeGauge(String name, String... tags) {
+		gauges.remove(new MetricName(name, concat(commonTags, tags)));
+	}
+
+	/**
+	 * Reads all metrics and resets the histograms
+	 *
+	 * @return metric values
+	 */
+	public MetricsSnapshot snapshot() {
+		Map<MetricName, Long> counterValues = new TreeMap<>(MetricsRegistry::compare);
+		for (Map.Entry<MetricName, Counter> counter : counters.entrySet()) {
+			counterValues.put(counter.getKey(), counter.getValue().get());
+		}
+		Map<MetricName, Long> gaugeValues = new TreeMap<>(MetricsRegistry::compare);
+		for (Map.Entry<MetricName, Gauge> gauge : gauges.entrySet()) {
+			try {
+				gaugeValues.put(gauge.getKey(), gauge.getValue().get());
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Failed to read gauge " + gauge.getKey() + ": " + e.getMessage(), e);
+			}
+		}
+		Map<MetricName, HistogramSnapshot> histogramValues = new TreeMap<>(MetricsRegistry::compare);
+		for (Map.Entry<MetricName, Histogram> histogram : histograms.entrySet()) {
+			histogramValues.put(histogram.getKey(), histogram.getValue().snapshotAndReset());
+		}
+		return new MetricsSnapshot(System.currentTimeMillis(), counterValues, gaugeValues, histogramValues);
+	}
+
+	/**
+	 * Takes a snapshot and passes it to an exporter
+	 *
+	 * @param exporter
+	 */
+	public void export(MetricsExporter exporter) {
+		try {
+			exporter.export(snapshot());
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Failed to export metrics: " + e.getMessage(), e);
+		}
+	}
+
+	private static String[] concat(String[] first, String[] second) {
+		if (first.length == 0) {
+			return second;
+		}
+		String[] tags = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, tags, first.length, second.length);
+		return tags;
+	}
+
+	private static int compare(MetricName first, MetricName second) {
+		return first.toString().compareTo(second.toString());
+	}
+}
@@ -0,0 +1,44 @@
+package org.salesforce.demo.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Values of all metrics at the end of an export interval
+ */
+public class MetricsSnapshot {
+	private final long timestampMillis;
+	private final Map<MetricName, Long> counters;
+	private final Map<MetricName, Long> gauges;
+	private final Map<MetricName, HistogramSnapshot> histograms;
+
+	MetricsSnapshot(long timestampMillis, Map<MetricName, Long> counters, Map<MetricName, Long> gauges,
+			Map<MetricName, HistogramSnapshot> histograms) {
+		this.timestampMillis = timestampMillis;
+		this.counters = Collections.unmodifiableMap(counters);
+		this.gauges = Collections.unmodifiableMap(gauges);
+		this.histograms = Collections.unmodifiableMap(histograms);
+	}
+
+	public long getTimestampMillis() {
+		return timestampMillis;
+	}
+
+	/**
+	 * @return counter totals since they were created
+	 */
+	public Map<MetricName, Long> getCounters() {
+		return counters;
+	}
+
+	public Map<MetricName, Long> getGauges() {
+		return gauges;
+	}
+
+	/**
+	 * @return values recorded by the histograms since the previous snapshot
+	 */
+	public Map<MetricName, HistogramSnapshot> getHistograms() {
+		return histograms;
+	}
+}
@@ -3,8 +3,17 @@ package org.salesforce.demo.utils;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
+import org.salesforce.demo.events.ChangeEventHeader.ChangeType;
+import org.salesforce.demo.events.EventFilter;
+import org.salesforce.demo.events.FieldProjection;
+import org.salesforce.demo.events.OrderingKey;
+
+import com.salesforce.eventbus.protobuf.ReplayPreset;
+
 public class Config {
 	private static Config config;
 
@@ -12,10 +21,44 @@ public class Config {
 	private String username;
 	private String password;
 	private String token;
+	private String jwtClientId;
+	private String jwtPrivateKeyFile;
+	private String jwtAudience;
 	
 	private String pubSubEndpoint;
 	private String pubSubTopicName;
+	private List<String> pubSubTopicNames;
+	private int channelPoolSize;
 	private int pubSubEventReceiveLimit;
+	private int flowControlInitialBatchSize;
+	private int flowControlMinBatchSize;
+	private int flowControlMaxBatchSize;
+	private int flowControlLowWaterMark;
+	private int flowControlTargetBatchMillis;
+	private int schemaCacheMaxSize;
+	private int schemaCacheTtlMinutes;
+	private boolean parserReuseRecords;
+	private ReplayPreset replayPreset;
+	private String checkpointFile;
+	private int checkpointFlushIntervalMillis;
+	private int reconnectInitialBackoffMillis;
+	private int reconnectMaxBackoffMillis;
+	private int reconnectMaxAttempts;
+	private int pipelineWorkers;
+	private int pipelineCapacity;
+	private OrderingKey pipelineOrderingKey;
+	private boolean virtualThreads;
+	private int publishMaxBatchEvents;
+	private int publishMaxBatchBytes;
+	private int publishLingerMillis;
+	private int publishMaxInFlightBatches;
+	private int metricsExportIntervalSeconds;
+	private int traceSampleEvery;
+	private int traceAsyncQueueSize;
+	private int sessionRefreshMarginSeconds;
+	private int sessionRetryDelaySeconds;
+	private EventFilter eventFilter;
+	private FieldProjection fieldProjection;
 
 	public String getPubSubEndpoint() {
 		return pubSubEndpoint;
@@ -25,10 +68,164 @@ public class Config {
 		return pubSubTopicName;
 	}
 
+	/**
+	 * @return topics listed in the comma-separated topic name property
+	 */
+	public List<String> getPubSubTopicNames() {
+		return pubSubTopicNames;
+	}
+
+	public int getChannelPoolSize() {
+		return channelPoolSize;
+	}
+
 	public int getPubSubEventReceiveLimit() {
 		return pubSubEventReceiveLimit;
 	}
 
+	public int getFlowControlInitialBatchSize() {
+		return flowControlInitialBatchSize;
+	}
+
+	public int getFlowControlMinBatchSize() {
+		return flowControlMinBatchSize;
+	}
+
+	public int getFlowControlMaxBatchSize() {
+		return flowControlMaxBatchSize;
+	}
+
+	public int getFlowControlLowWaterMark() {
+		return flowControlLowWaterMark;
+	}
+
+	public int getFlowControlTargetBatchMillis() {
+		return flowControlTargetBatchMillis;
+	}
+
+	public int getSchemaCacheMaxSize() {
+		return schemaCacheMaxSize;
+	}
+
+	public int getSchemaCacheTtlMinutes() {
+		return schemaCacheTtlMinutes;
+	}
+
+	public boolean isParserReuseRecords() {
+		return parserReuseRecords;
+	}
+
+	public ReplayPreset getReplayPreset() {
+		return replayPreset;
+	}
+
+	/**
+	 * @return path of the checkpoint file or null if checkpoints are only kept in memory
+	 */
+	public String getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	public int getCheckpointFlushIntervalMillis() {
+		return checkpointFlushIntervalMillis;
+	}
+
+	public int getReconnectInitialBackoffMillis() {
+		return reconnectInitialBackoffMillis;
+	}
+
+	public int getReconnectMaxBackoffMillis() {
+		return reconnectMaxBackoffMillis;
+	}
+
+	public int getReconnectMaxAttempts() {
+		return reconnectMaxAttempts;
+	}
+
+	public int getPipelineWorkers() {
+		return pipelineWorkers;
+	}
+
+	public int getPipelineCapacity() {
+		return pipelineCapacity;
+	}
+
+	public OrderingKey getPipelineOrderingKey() {
+		return pipelineOrderingKey;
+	}
+
+	/**
+	 * @return whether gRPC callbacks and event handlers should run on virtual threads (Java 21 and later)
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public int getPublishMaxBatchEvents() {
+		return publishMaxBatchEvents;
+	}
+
+	public int getPublishMaxBatchBytes() {
+		return publishMaxBatchBytes;
+	}
+
+	public int getPublishLingerMillis() {
+		return publishLingerMillis;
+	}
+
+	public int getPublishMaxInFlightBatches() {
+		return publishMaxInFlightBatches;
+	}
+
+	/**
+	 * @return interval between two metric exports, zero or less to disable exports
+	 */
+	public int getMetricsExportIntervalSeconds() {
+		return metricsExportIntervalSeconds;
+	}
+
+	/**
+	 * @return one event out of this many is traced when the tracer logs at FINE level
+	 */
+	public int getTraceSampleEvery() {
+		return traceSampleEvery;
+	}
+
+	/**
+	 * @return number of traces waiting to be written in the background, zero to write them synchronously
+	 */
+	public int getTraceAsyncQueueSize() {
+		return traceAsyncQueueSize;
+	}
+
+	/**
+	 * @return time before the session expiry at which it's renewed
+	 */
+	public int getSessionRefreshMarginSeconds() {
+		return sessionRefreshMarginSeconds;
+	}
+
+	/**
+	 * @return delay before retrying a failed session refresh
+	 */
+	public int getSessionRetryDelaySeconds() {
+		return sessionRetryDelaySeconds;
+	}
+
+	/**
+	 * @return filter applied to the events of the configured topics
+	 */
+	public EventFilter getEventFilter() {
+		return eventFilter;
+	}
+
+	/**
+	 * @return fields decoded for the configured topics or null to decode all fields
+	 */
+	public FieldProjection getFieldProjection() {
+		return fieldProjection;
+	}
+
 	public String getLoginUrl() {
 		return loginUrl;
 	}
@@ -45,19 +242,33 @@ public class Config {
 		return token;
 	}
 
+	/**
+	 * @return consumer key of the connected app used for JWT bearer logins, null for username/password logins
+	 */
+	public String getJwtClientId() {
+		return jwtClientId;
+	}
+
+	/**
+	 * @return PKCS#8 PEM file holding the private key that signs JWT assertions
+	 */
+	public String getJwtPrivateKeyFile() {
+		return jwtPrivateKeyFile;
+	}
+
+	/**
+	 * @return login server JWT assertions are intended for
+	 */
+	public String getJwtAudience() {
+		return jwtAudience;
+	}
+
 	public static Config get() {
 		if (config == null) {
 			try (InputStream input = new FileInputStream("config.properties")) {
 				Properties prop = new Properties();
 				prop.load(input);
-				config = new Config();
-				config.loginUrl = readMandatoryProp(prop, "loginUrl");
-				config.username = readMandatoryProp(prop, "user.username");
-				config.password = readMandatoryProp(prop, "user.password");
-				config.token = readMandatoryProp(prop, "user.token");
-				config.pubSubEndpoint = readMandatoryProp(prop, "pubSub.endpoint");
-				config.pubSubTopicName = readMandatoryProp(prop, "pubSub.topicName");
-				config.pubSubEventReceiveLimit = readMantoryIntProp(prop, "pubSub.eventReceiveLimit");
+				config = load(prop);
 			} catch (IOException e) {
 				throw new RuntimeException("Failed to load configuration: " + e.getMessage(), e);
 			}
@@ -65,6 +276,92 @@ public class Config {
 		return config;
 	}
 
+	/**
+	 * Reads a configuration from properties rather than from the config.properties file
+	 *
+	 * @param prop
+	 * @return configuration
+	 * @throws IOException if a mandatory property is missing
+	 */
+	public static Config load(Properties prop) throws IOException {
+		Config config = new Config();
+		config.loginUrl = readMandatoryProp(prop, "loginUrl");
+		config.username = readMandatoryProp(prop, "user.username");
+		config.jwtClientId = readOptionalProp(prop, "jwt.clientId");
+		if (config.jwtClientId == null) {
+			config.password = readMandatoryProp(prop, "user.password");
+			config.token = readMandatoryProp(prop, "user.token");
+		} else {
+			config.jwtPrivateKeyFile = readMandatoryProp(prop, "jwt.privateKeyFile").trim();
+			String audience = readOptionalProp(prop, "jwt.audience");
+			config.jwtAudience = audience == null ? config.loginUrl : audience;
+		}
+		config.pubSubEndpoint = readMandatoryProp(prop, "pubSub.endpoint");
+		config.pubSubTopicName = readMandatoryProp(prop, "pubSub.topicName");
+		config.pubSubTopicNames = splitList(config.pubSubTopicName);
+		config.channelPoolSize = readOptionalIntProp(prop, "pubSub.channelPoolSize", 1);
+		config.pubSubEventReceiveLimit = readMantoryIntProp(prop, "pubSub.eventReceiveLimit");
+		config.flowControlInitialBatchSize = readOptionalIntProp(prop, "pubSub.flowControl.initialBatchSize", 25);
+		config.flowControlMinBatchSize = readOptionalIntProp(prop, "pubSub.flowControl.minBatchSize", 1);
+		config.flowControlMaxBatchSize = readOptionalIntProp(prop, "pubSub.flowControl.maxBatchSize", 100);
+		config.flowControlLowWaterMark = readOptionalIntProp(prop, "pubSub.flowControl.lowWaterMark", 25);
+		config.flowControlTargetBatchMillis = readOptionalIntProp(prop, "pubSub.flowControl.targetBatchMillis",
+				1000);
+		config.schemaCacheMaxSize = readOptionalIntProp(prop, "pubSub.schemaCache.maxSize", 100);
+		config.schemaCacheTtlMinutes = readOptionalIntProp(prop, "pubSub.schemaCache.ttlMinutes", 60);
+		config.parserReuseRecords = Boolean.parseBoolean(prop.getProperty("pubSub.parser.reuseRecords", "false"));
+		config.replayPreset = ReplayPreset.valueOf(prop.getProperty("pubSub.replayPreset", "LATEST").trim());
+		config.checkpointFile = readOptionalProp(prop, "pubSub.checkpoint.file");
+		config.checkpointFlushIntervalMillis = readOptionalIntProp(prop,
+				"pubSub.checkpoint.flushIntervalMillis", 1000);
+		config.reconnectInitialBackoffMillis = readOptionalIntProp(prop,
+				"pubSub.reconnect.initialBackoffMillis", 500);
+		config.reconnectMaxBackoffMillis = readOptionalIntProp(prop, "pubSub.reconnect.maxBackoffMillis",
+				30000);
+		config.reconnectMaxAttempts = readOptionalIntProp(prop, "pubSub.reconnect.maxAttempts", 0);
+		config.pipelineWorkers = readOptionalIntProp(prop, "pubSub.pipeline.workers",
+				Runtime.getRuntime().availableProcessors());
+		config.pipelineCapacity = readOptionalIntProp(prop, "pubSub.pipeline.capacity", 1000);
+		config.pipelineOrderingKey = OrderingKey
+				.valueOf(prop.getProperty("pubSub.pipeline.orderingKey", "RECORD_ID").trim());
+		config.virtualThreads = Boolean.parseBoolean(prop.getProperty("pubSub.virtualThreads", "false").trim());
+		config.publishMaxBatchEvents = readOptionalIntProp(prop, "pubSub.publish.maxBatchEvents", 100);
+		config.publishMaxBatchBytes = readOptionalIntProp(prop, "pubSub.publish.maxBatchBytes", 1024 * 1024);
+		config.publishLingerMillis = readOptionalIntProp(prop, "pubSub.publish.lingerMillis", 10);
+		config.publishMaxInFlightBatches = readOptionalIntProp(prop, "pubSub.publish.maxInFlightBatches", 4);
+		config.metricsExportIntervalSeconds = readOptionalIntProp(prop, "pubSub.metrics.exportIntervalSeconds",
+				60);
+		config.traceSampleEvery = readOptionalIntProp(prop, "pubSub.trace.sampleEvery", 100);
+		config.traceAsyncQueueSize = readOptionalIntProp(prop, "pubSub.trace.asyncQueueSize", 1024);
+		config.sessionRefreshMarginSeconds = readOptionalIntProp(prop, "pubSub.session.refreshMarginSeconds", 300);
+		config.sessionRetryDelaySeconds = readOptionalIntProp(prop, "pubSub.session.retryDelaySeconds", 30);
+		List<ChangeType> changeTypes = new ArrayList<>();
+		for (String changeType : splitList(prop.getProperty("pubSub.filter.changeTypes", ""))) {
+			changeTypes.add(ChangeType.valueOf(changeType));
+		}
+		config.eventFilter = EventFilter.all()
+				.withEntityNames(splitList(prop.getProperty("pubSub.filter.entityNames", "")))
+				.withChangeTypes(changeTypes)
+				.withChangedFields(splitList(prop.getProperty("pubSub.filter.changedFields", "")));
+		List<String> projectedFields = splitList(prop.getProperty("pubSub.projection.fields", ""));
+		config.fieldProjection = projectedFields.isEmpty() ? null : FieldProjection.of(projectedFields);
+		return config;
+	}
+
+	/**
+	 * @param value comma-separated values
+	 * @return trimmed, non-empty values
+	 */
+	private static List<String> splitList(String value) {
+		List<String> values = new ArrayList<>();
+		for (String item : value.split(",")) {
+			if (!item.trim().isEmpty()) {
+				values.add(item.trim());
+			}
+		}
+		return values;
+	}
+
 	private static String readMandatoryProp(Properties prop, String key) throws IOException {
 		String value = prop.getProperty(key);
 		if (value == null || value.trim().equals("")) {
@@ -77,4 +374,20 @@ public class Config {
 		String stringValue = readMandatoryProp(prop, key);
 		return Integer.valueOf(stringValue);
 	}
+
+	private static String readOptionalProp(Properties prop, String key) {
+		String value = prop.getProperty(key);
+		if (value == null || value.trim().equals("")) {
+			return null;
+		}
+		return value.trim();
+	}
+
+	private static int readOptionalIntProp(Properties prop, String key, int defaultValue) {
+		String stringValue = prop.getProperty(key);
+		if (stringValue == null || stringValue.trim().equals("")) {
+			return defaultValue;
+		}
+		return Integer.valueOf(stringValue.trim());
+	}
 }
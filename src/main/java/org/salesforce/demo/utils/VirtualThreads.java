@@ -0,0 +1,84 @@
+package org.salesforce.demo.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads when the runtime supports them (Java 21 and later).
+ * The project is compiled for Java 11 by default so the virtual thread API is accessed through reflection.
+ */
+public final class VirtualThreads {
+	private static final Method ofVirtual;
+	private static final Method builderName;
+	private static final Method builderFactory;
+	private static final Method newVirtualThreadPerTaskExecutor;
+
+	static {
+		Method ofVirtualMethod = null;
+		Method nameMethod = null;
+		Method factoryMethod = null;
+		Method executorMethod = null;
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+			nameMethod = builderClass.getMethod("name", String.class, long.class);
+			factoryMethod = builderClass.getMethod("factory");
+			executorMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (ReflectiveOperationException e) {
+			// Virtual threads are not available on this runtime
+			ofVirtualMethod = null;
+		}
+		ofVirtual = ofVirtualMethod;
+		builderName = nameMethod;
+		builderFactory = factoryMethod;
+		newVirtualThreadPerTaskExecutor = executorMethod;
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return whether the runtime supports virtual threads
+	 */
+	public static boolean isSupported() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * @return executor that starts a new virtual thread for each task
+	 * @throws UnsupportedOperationException if the runtime doesn't support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		checkSupported();
+		try {
+			return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Failed to create virtual thread executor: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param prefix thread name prefix, followed by a sequence number
+	 * @return factory of virtual threads
+	 * @throws UnsupportedOperationException if the runtime doesn't support virtual threads
+	 */
+	public static ThreadFactory newThreadFactory(String prefix) {
+		checkSupported();
+		try {
+			Object builder = ofVirtual.invoke(null);
+			builder = builderName.invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderFactory.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Failed to create virtual thread factory: " + e.getMessage(), e);
+		}
+	}
+
+	private static void checkSupported() {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or later, running on Java " + System.getProperty("java.version"));
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package org.salesforce.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.salesforce.demo.EventPublisher.PublishOutcomeUnknownException;
+import org.salesforce.demo.events.ReplayId;
+import org.salesforce.demo.metrics.MetricsRegistry;
+
+import com.google.protobuf.ByteString;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+import com.salesforce.eventbus.protobuf.PubSubGrpc;
+import com.salesforce.eventbus.protobuf.PublishRequest;
+import com.salesforce.eventbus.protobuf.PublishResponse;
+import com.salesforce.eventbus.protobuf.PublishResult;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+public class EventPublisherTest {
+	private static final String TOPIC_NAME = "/event/Test__e";
+	private static final long NO_LINGER = TimeUnit.MINUTES.toMillis(1);
+	private static final AtomicInteger serverCount = new AtomicInteger();
+
+	private final ScriptedPublishService service = new ScriptedPublishService();
+	private Server server;
+	private ManagedChannel channel;
+	private ScheduledExecutorService scheduler;
+
+	@Before
+	public void setUp() throws Exception {
+		String name = "publisher-test-" + serverCount.incrementAndGet();
+		server = InProcessServerBuilder.forName(name).addService(service).build().start();
+		channel = InProcessChannelBuilder.forName(name).build();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		channel.shutdownNow();
+		server.shutdownNow();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void batchesByEventCount() throws Exception {
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(3, 1 << 20, NO_LINGER, 4));
+		for (int i = 0; i < 7; i++) {
+			publisher.publish(event(i, 10));
+		}
+		publisher.flush();
+
+		PublishCall call = service.nextCall();
+		assertEquals(3, call.nextRequest().getEventsCount());
+		assertEquals(3, call.nextRequest().getEventsCount());
+		assertEquals(1, call.nextRequest().getEventsCount());
+	}
+
+	@Test
+	public void batchesByBytes() throws Exception {
+		int eventSize = event(0, 100).getSerializedSize();
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(100, eventSize * 2 + 1, NO_LINGER, 4));
+		for (int i = 0; i < 5; i++) {
+			publisher.publish(event(i, 100));
+		}
+		publisher.flush();
+
+		PublishCall call = service.nextCall();
+		assertEquals(2, call.nextRequest().getEventsCount());
+		assertEquals(2, call.nextRequest().getEventsCount());
+		assertEquals(1, call.nextRequest().getEventsCount());
+	}
+
+	@Test
+	public void lingerSendsPartialBatch() throws Exception {
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(100, 1 << 20, 20, 4));
+		publisher.publish(event(0, 10));
+
+		// Not flushed: the linger timer sends the batch
+		assertEquals(1, service.nextCall().nextRequest().getEventsCount());
+	}
+
+	@Test
+	public void boundsInFlightBatches() throws Exception {
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(1, 1 << 20, NO_LINGER, 2));
+		for (int i = 0; i < 3; i++) {
+			publisher.publish(event(i, 10));
+		}
+
+		PublishCall call = service.nextCall();
+		PublishRequest first = call.nextRequest();
+		call.nextRequest();
+		assertNull(call.requests.poll(200, TimeUnit.MILLISECONDS));
+		call.answer(first, 1);
+		assertEquals("event-2", call.nextRequest().getEvents(0).getId());
+	}
+
+	@Test
+	public void completesFuturesWithResultsInOrder() throws Exception {
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(2, 1 << 20, NO_LINGER, 4));
+		List<CompletableFuture<ByteString>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(publisher.publish(event(i, 10)));
+		}
+
+		PublishCall call = service.nextCall();
+		PublishRequest first = call.nextRequest();
+		PublishRequest second = call.nextRequest();
+		call.answer(first, 10);
+		call.answer(second, 20);
+
+		assertEquals(10, ReplayId.toLong(futures.get(0).get(5, TimeUnit.SECONDS)));
+		assertEquals(11, ReplayId.toLong(futures.get(1).get(5, TimeUnit.SECONDS)));
+		assertEquals(20, ReplayId.toLong(futures.get(2).get(5, TimeUnit.SECONDS)));
+		assertEquals(21, ReplayId.toLong(futures.get(3).get(5, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void serverCloseLeavesUnansweredBatchUnknown() throws Exception {
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(1, 1 << 20, NO_LINGER, 4));
+		CompletableFuture<ByteString> unanswered = publisher.publish(event(0, 10));
+		PublishCall call = service.nextCall();
+		call.nextRequest();
+		call.responses.onCompleted();
+
+		assertOutcomeUnknown(unanswered);
+		// The next event goes out on a new stream
+		CompletableFuture<ByteString> next = publisher.publish(event(1, 10));
+		PublishCall nextCall = service.nextCall();
+		nextCall.answer(nextCall.nextRequest(), 5);
+		assertEquals(5, ReplayId.toLong(next.get(5, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void transientErrorResendsUnsentBatches() throws Exception {
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(1, 1 << 20, NO_LINGER, 1));
+		CompletableFuture<ByteString> sent = publisher.publish(event(0, 10));
+		CompletableFuture<ByteString> unsent = publisher.publish(event(1, 10));
+		PublishCall call = service.nextCall();
+		call.nextRequest();
+		call.responses.onError(Status.UNAVAILABLE.asRuntimeException());
+
+		assertOutcomeUnknown(sent);
+		PublishCall retry = service.nextCall();
+		PublishRequest resent = retry.nextRequest();
+		assertEquals("event-1", resent.getEvents(0).getId());
+		retry.answer(resent, 7);
+		assertEquals(7, ReplayId.toLong(unsent.get(5, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void permanentErrorFailsUnsentBatches() throws Exception {
+		EventPublisher publisher = newPublisher(new EventPublisher.Settings(1, 1 << 20, NO_LINGER, 1));
+		CompletableFuture<ByteString> sent = publisher.publish(event(0, 10));
+		CompletableFuture<ByteString> unsent = publisher.publish(event(1, 10));
+		PublishCall call = service.nextCall();
+		call.nextRequest();
+		call.responses.onError(Status.PERMISSION_DENIED.asRuntimeException());
+
+		assertOutcomeUnknown(sent);
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> unsent.get(5, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof StatusRuntimeException);
+		assertNull(service.calls.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	private EventPublisher newPublisher(EventPublisher.Settings settings) {
+		return new EventPublisher(PubSubGrpc.newStub(channel), TOPIC_NAME, "schema", null, settings,
+				new SubscriptionSupervisor.ReconnectSettings(10, 50, 0), scheduler, new MetricsRegistry());
+	}
+
+	private static ProducerEvent event(int index, int payloadSize) {
+		return ProducerEvent.newBuilder().setId("event-" + index).setSchemaId("schema")
+				.setPayload(ByteString.copyFrom(new byte[payloadSize])).build();
+	}
+
+	private static void assertOutcomeUnknown(CompletableFuture<ByteString> future) {
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof PublishOutcomeUnknownException);
+	}
+
+	/**
+	 * Records the publish streams and lets the test answer them
+	 */
+	private static class ScriptedPublishService extends PubSubGrpc.PubSubImplBase {
+		private final BlockingQueue<PublishCall> calls = new LinkedBlockingQueue<>();
+
+		@Override
+		public StreamObserver<PublishRequest> publishStream(StreamObserver<PublishResponse> responses) {
+			PublishCall call = new PublishCall(responses);
+			calls.add(call);
+			return call;
+		}
+
+		private PublishCall nextCall() throws InterruptedException {
+			PublishCall call = calls.poll(5, TimeUnit.SECONDS);
+			assertNotNull("no publish stream opened", call);
+			return call;
+		}
+	}
+
+	private static class PublishCall implements StreamObserver<PublishRequest> {
+		private final StreamObserver<PublishResponse> responses;
+		private final BlockingQueue<PublishRequest> requests = new LinkedBlockingQueue<>();
+
+		private PublishCall(StreamObserver<PublishResponse> responses) {
+			this.responses = responses;
+		}
+
+		@Override
+		public void onNext(PublishRequest request) {
+			requests.add(request);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+		}
+
+		@Override
+		public void onCompleted() {
+		}
+
+		private PublishRequest nextRequest() throws InterruptedException {
+			PublishRequest request = requests.poll(5, TimeUnit.SECONDS);
+			assertNotNull("no publish request received", request);
+			return request;
+		}
+
+		/**
+		 * Publishes every event of a request with consecutive replay IDs
+		 */
+		private void answer(PublishRequest request, long firstReplayId) {
+			PublishResponse.Builder response = PublishResponse.newBuilder().setRpcId("rpc");
+			for (int i = 0; i < request.getEventsCount(); i++) {
+				response.addResults(PublishResult.newBuilder().setReplayId(ReplayId.fromLong(firstReplayId + i)));
+			}
+			responses.onNext(response.build());
+		}
+	}
+}
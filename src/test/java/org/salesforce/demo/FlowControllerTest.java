@@ -0,0 +1,208 @@
+package org.salesforce.demo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+import com.salesforce.eventbus.protobuf.FetchRequest;
+import com.salesforce.eventbus.protobuf.FetchResponse;
+
+import io.grpc.stub.ClientCallStreamObserver;
+
+public class FlowControllerTest {
+	private static final String TOPIC_NAME = "/data/AccountChangeEvent";
+	private static final int CAPACITY = 1000;
+
+	private final EventPipeline pipeline = new EventPipeline(1, CAPACITY);
+	private final RecordingRequestStream requestStream = new RecordingRequestStream();
+
+	@After
+	public void tearDown() {
+		pipeline.close();
+	}
+
+	@Test
+	public void sendsInitialRequestOnceReady() {
+		FlowController flowController = newFlowController(0, new FlowController.Settings(10, 1, 100, 5, 1000));
+		flowController.onReady();
+		flowController.onReady();
+
+		assertEquals(1, requestStream.requests.size());
+		assertEquals(TOPIC_NAME, requestStream.requests.get(0).getTopicName());
+		assertEquals(10, requestStream.requests.get(0).getNumRequested());
+	}
+
+	@Test
+	public void topsUpAtLowWaterMark() {
+		FlowController flowController = newFlowController(0, new FlowController.Settings(10, 1, 10, 5, 1000));
+		flowController.onReady();
+		flowController.onResponse(response(10, 0));
+
+		flowController.onProcessed(4, 0);
+		assertEquals(1, requestStream.requests.size());
+		flowController.onProcessed(1, 0);
+		// Five events are still outstanding, the window is filled back up to the batch size
+		assertEquals(2, requestStream.requests.size());
+		assertEquals(5, requestStream.requests.get(1).getNumRequested());
+		assertEquals(10, flowController.getOutstanding());
+	}
+
+	@Test
+	public void lowWaterMarkIsCappedAtHalfTheBatchSize() {
+		FlowController flowController = newFlowController(0, new FlowController.Settings(10, 1, 10, 9, 1000));
+		flowController.onReady();
+		flowController.onResponse(response(10, 0));
+
+		flowController.onProcessed(2, 0);
+		assertEquals(1, requestStream.requests.size());
+		flowController.onProcessed(3, 0);
+		assertEquals(2, requestStream.requests.size());
+	}
+
+	@Test
+	public void growsBatchSizeWhenCreditsAreExhausted() {
+		FlowController flowController = newFlowController(0, new FlowController.Settings(10, 1, 30, 5, 1000));
+		flowController.onReady();
+
+		flowController.onResponse(response(10, 0));
+		assertEquals(20, flowController.getBatchSize());
+		flowController.onResponse(response(10, 0));
+		assertEquals(30, flowController.getBatchSize());
+		// Credits left on the server: the handler is the bottleneck
+		flowController.onResponse(response(10, 5));
+		assertEquals(30, flowController.getBatchSize());
+	}
+
+	@Test
+	public void shrinksBatchSizeWhenHandlerFallsBehind() {
+		FlowController flowController = newFlowController(0, new FlowController.Settings(16, 6, 100, 0, 10));
+		flowController.onReady();
+		flowController.onResponse(response(16, 5));
+
+		// 16 events at 1 ms each exceed the 10 ms target
+		flowController.onProcessed(1, TimeUnit.MILLISECONDS.toNanos(1));
+		assertEquals(8, flowController.getBatchSize());
+		flowController.onProcessed(1, TimeUnit.MILLISECONDS.toNanos(2));
+		// Halving stops at the minimum batch size
+		assertEquals(6, flowController.getBatchSize());
+		// Fast enough for the current window
+		flowController.onProcessed(1, TimeUnit.MICROSECONDS.toNanos(100));
+		assertEquals(6, flowController.getBatchSize());
+	}
+
+	@Test
+	public void capsRequestsAtEventLimit() {
+		FlowController flowController = newFlowController(12, new FlowController.Settings(10, 1, 10, 5, 1000));
+		flowController.onReady();
+		flowController.onResponse(response(10, 0));
+		flowController.onProcessed(10, 0);
+
+		assertEquals(2, requestStream.requests.size());
+		assertEquals(2, requestStream.requests.get(1).getNumRequested());
+		flowController.onResponse(response(2, 0));
+		flowController.onProcessed(2, 0);
+		assertEquals(2, requestStream.requests.size());
+	}
+
+	@Test
+	public void releasesUndeliveredReservationsOnClose() {
+		FlowController flowController = newFlowController(0, new FlowController.Settings(10, 1, 10, 5, 1000));
+		flowController.onReady();
+		flowController.onResponse(response(4, 6));
+		assertEquals(CAPACITY - 10, availableCapacity());
+
+		flowController.close();
+		// Delivered events keep their reservation until they are processed
+		assertEquals(CAPACITY - 4, availableCapacity());
+		flowController.close();
+		assertEquals(CAPACITY - 4, availableCapacity());
+	}
+
+	@Test
+	public void waitsForPipelineCapacity() {
+		FlowController flowController = newFlowController(0, new FlowController.Settings(10, 1, 10, 5, 1000));
+		FlowController other = newFlowController(0, new FlowController.Settings(10, 1, 10, 5, 1000));
+		int held = pipeline.reserve(other, CAPACITY - 3);
+		flowController.onReady();
+		assertEquals(3, requestStream.requests.get(0).getNumRequested());
+
+		flowController.onResponse(response(3, 0));
+		flowController.onProcessed(3, 0);
+		// The pipeline is full until the other reservation is released
+		assertEquals(1, requestStream.requests.size());
+		pipeline.release(held);
+		assertEquals(2, requestStream.requests.size());
+		assertEquals(10, requestStream.requests.get(1).getNumRequested());
+	}
+
+	private FlowController newFlowController(long eventLimit, FlowController.Settings settings) {
+		FetchRequest initialRequest = FetchRequest.newBuilder().setTopicName(TOPIC_NAME).build();
+		return new FlowController(requestStream, initialRequest, eventLimit, settings, pipeline);
+	}
+
+	/**
+	 * Pipeline capacity that is not reserved, measured by reserving and releasing it
+	 */
+	private int availableCapacity() {
+		FlowController probe = newFlowController(0, new FlowController.Settings(1, 1, 1, 0, 1000));
+		int available = pipeline.reserve(probe, Integer.MAX_VALUE);
+		pipeline.release(available);
+		return available;
+	}
+
+	private static FetchResponse response(int eventCount, int pendingNumRequested) {
+		FetchResponse.Builder response = FetchResponse.newBuilder().setPendingNumRequested(pendingNumRequested);
+		for (int i = 0; i < eventCount; i++) {
+			response.addEvents(ConsumerEvent.getDefaultInstance());
+		}
+		return response.build();
+	}
+
+	private static class RecordingRequestStream extends ClientCallStreamObserver<FetchRequest> {
+		private final List<FetchRequest> requests = new ArrayList<>();
+
+		@Override
+		public void onNext(FetchRequest request) {
+			requests.add(request);
+		}
+
+		@Override
+		public void onError(Throwable t) {
+		}
+
+		@Override
+		public void onCompleted() {
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setOnReadyHandler(Runnable onReadyHandler) {
+		}
+
+		@Override
+		public void disableAutoInboundFlowControl() {
+		}
+
+		@Override
+		public void request(int count) {
+		}
+
+		@Override
+		public void setMessageCompression(boolean enable) {
+		}
+
+		@Override
+		public void cancel(String message, Throwable cause) {
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.salesforce.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class ReplayTrackerTest {
+	private final ReplayTracker tracker = new ReplayTracker();
+
+	@Test
+	public void completesInDeliveryOrder() {
+		ReplayTracker.Slot first = tracker.register(replayId(1));
+		ReplayTracker.Slot second = tracker.register(replayId(2));
+
+		assertEquals(replayId(1), tracker.complete(first));
+		assertEquals(replayId(2), tracker.complete(second));
+	}
+
+	@Test
+	public void completesOutOfOrder() {
+		ReplayTracker.Slot first = tracker.register(replayId(1));
+		ReplayTracker.Slot second = tracker.register(replayId(2));
+		ReplayTracker.Slot third = tracker.register(replayId(3));
+
+		assertNull(tracker.complete(third));
+		assertNull(tracker.complete(second));
+		// Completing the oldest event releases every event after it
+		assertEquals(replayId(3), tracker.complete(first));
+	}
+
+	@Test
+	public void gapHoldsBackSafeReplayId() {
+		ReplayTracker.Slot first = tracker.register(replayId(1));
+		ReplayTracker.Slot second = tracker.register(replayId(2));
+		ReplayTracker.Slot third = tracker.register(replayId(3));
+		ReplayTracker.Slot fourth = tracker.register(replayId(4));
+
+		assertEquals(replayId(1), tracker.complete(first));
+		assertNull(tracker.complete(third));
+		assertNull(tracker.complete(fourth));
+		assertNull(tracker.registerProcessed(replayId(5)));
+		assertEquals(replayId(5), tracker.complete(second));
+	}
+
+	@Test
+	public void registerProcessedAdvancesWhenNothingIsInFlight() {
+		assertEquals(replayId(7), tracker.registerProcessed(replayId(7)));
+	}
+
+	@Test
+	public void returnsNullWhenSafeReplayIdDidNotChange() {
+		ReplayTracker.Slot first = tracker.register(replayId(1));
+		tracker.register(replayId(2));
+
+		assertEquals(replayId(1), tracker.complete(first));
+		// Completing the same event again doesn't move the safe replay ID
+		assertNull(tracker.complete(first));
+	}
+
+	@Test
+	public void tracksLastRegisteredReplayId() {
+		assertNull(tracker.getLastRegistered());
+		ReplayTracker.Slot first = tracker.register(replayId(1));
+		tracker.register(replayId(2));
+		tracker.complete(first);
+
+		assertEquals(replayId(2), tracker.getLastRegistered());
+	}
+
+	private static ByteString replayId(long value) {
+		return ByteString.copyFrom(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+	}
+}
@@ -0,0 +1,56 @@
+package org.salesforce.demo.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SessionManagerTest {
+	private final AtomicInteger logins = new AtomicInteger();
+	private final SessionManager sessionManager = new SessionManager(
+			() -> new SalesforceSession("token-" + logins.incrementAndGet(), "org", "https://instance"), 0, 10);
+
+	@After
+	public void tearDown() {
+		sessionManager.close();
+	}
+
+	@Test
+	public void awaitRenewalCompletesOnceRejectedSessionIsRenewed() throws Exception {
+		SalesforceSession rejected = sessionManager.getSession();
+		CompletableFuture<SalesforceSession> renewal = sessionManager.awaitRenewal(rejected);
+		assertFalse(renewal.isDone());
+
+		sessionManager.onRejected(rejected);
+		SalesforceSession renewed = renewal.get(5, TimeUnit.SECONDS);
+		assertNotSame(rejected, renewed);
+		assertSame(renewed, sessionManager.getCachedSession());
+		assertEquals(2, logins.get());
+	}
+
+	@Test
+	public void awaitRenewalOfReplacedSessionCompletesRightAway() throws Exception {
+		SalesforceSession rejected = sessionManager.getSession();
+		sessionManager.onRejected(rejected);
+		SalesforceSession renewed = sessionManager.awaitRenewal(rejected).get(5, TimeUnit.SECONDS);
+
+		CompletableFuture<SalesforceSession> renewal = sessionManager.awaitRenewal(rejected);
+		assertTrue(renewal.isDone());
+		assertSame(renewed, renewal.get());
+	}
+
+	@Test
+	public void awaitRenewalIsCancelledOnClose() throws Exception {
+		CompletableFuture<SalesforceSession> renewal = sessionManager.awaitRenewal(sessionManager.getSession());
+		sessionManager.close();
+		assertTrue(renewal.isCancelled());
+	}
+}
@@ -0,0 +1,121 @@
+package org.salesforce.demo.checkpoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.salesforce.demo.events.ReplayId;
+
+import com.google.protobuf.ByteString;
+
+public class FileCheckpointStoreTest {
+	private static final long NO_BACKGROUND_FLUSH = TimeUnit.HOURS.toMillis(1);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void flushAppendsPendingCheckpoints() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("checkpoints.log");
+		FileCheckpointStore store = new FileCheckpointStore(path, NO_BACKGROUND_FLUSH);
+		store.save("/topic/A", ReplayId.fromLong(1));
+		store.save("/topic/A", ReplayId.fromLong(2));
+		assertEquals(0, Files.size(path));
+
+		store.flush();
+		// Only the latest checkpoint of a topic is written
+		assertEquals(Arrays.asList(line("/topic/A", 2)), Files.readAllLines(path));
+		store.save("/topic/B", ReplayId.fromLong(3));
+		store.flush();
+		assertEquals(Arrays.asList(line("/topic/A", 2), line("/topic/B", 3)), Files.readAllLines(path));
+		store.close();
+	}
+
+	@Test
+	public void backgroundFlusherWritesCheckpoints() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("checkpoints.log");
+		FileCheckpointStore store = new FileCheckpointStore(path, 10);
+		store.save("/topic/A", ReplayId.fromLong(1));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (Files.size(path) == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(Arrays.asList(line("/topic/A", 1)), Files.readAllLines(path));
+		store.close();
+	}
+
+	@Test
+	public void reloadKeepsLastCheckpointOfEachTopic() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("checkpoints.log");
+		FileCheckpointStore store = new FileCheckpointStore(path, NO_BACKGROUND_FLUSH);
+		store.save("/topic/A", ReplayId.fromLong(1));
+		store.flush();
+		store.save("/topic/A", ReplayId.fromLong(2));
+		store.save("/topic/B", ReplayId.fromLong(5));
+		// Pending checkpoints are written on close
+		store.close();
+
+		FileCheckpointStore reloaded = new FileCheckpointStore(path, NO_BACKGROUND_FLUSH);
+		assertEquals(ReplayId.fromLong(2), reloaded.getReplayId("/topic/A"));
+		assertEquals(ReplayId.fromLong(5), reloaded.getReplayId("/topic/B"));
+		reloaded.close();
+	}
+
+	@Test
+	public void reloadIgnoresPartiallyWrittenLastLine() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("checkpoints.log");
+		String partial = line("/topic/B", 7);
+		Files.write(path, (line("/topic/A", 1) + "\n" + line("/topic/B", 6) + "\n"
+				+ partial.substring(0, partial.length() - 3)).getBytes(StandardCharsets.UTF_8));
+
+		FileCheckpointStore store = new FileCheckpointStore(path, NO_BACKGROUND_FLUSH);
+		assertEquals(ReplayId.fromLong(1), store.getReplayId("/topic/A"));
+		assertEquals(ReplayId.fromLong(6), store.getReplayId("/topic/B"));
+		assertNull(store.getReplayId("/topic/C"));
+		store.close();
+	}
+
+	@Test
+	public void compactsFileOncePastThreshold() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("checkpoints.log");
+		StringBuilder history = new StringBuilder();
+		for (int i = 0; history.length() <= 1024 * 1024; i++) {
+			history.append(line("/topic/A", i)).append('\n');
+		}
+		Files.write(path, history.toString().getBytes(StandardCharsets.UTF_8));
+
+		FileCheckpointStore store = new FileCheckpointStore(path, NO_BACKGROUND_FLUSH);
+		store.save("/topic/B", ReplayId.fromLong(1));
+		store.flush();
+		List<String> lines = Files.readAllLines(path);
+		assertEquals(2, lines.size());
+		assertTrue(lines.contains(line("/topic/B", 1)));
+		assertFalse(Files.exists(path.resolveSibling("checkpoints.log.tmp")));
+
+		// Appends go on to the compacted file
+		store.save("/topic/B", ReplayId.fromLong(2));
+		store.close();
+		FileCheckpointStore reloaded = new FileCheckpointStore(path, NO_BACKGROUND_FLUSH);
+		assertEquals(store.getReplayId("/topic/A"), reloaded.getReplayId("/topic/A"));
+		assertEquals(ReplayId.fromLong(2), reloaded.getReplayId("/topic/B"));
+		reloaded.close();
+	}
+
+	private static String line(String topicName, long replayId) {
+		ByteString bytes = ReplayId.fromLong(replayId);
+		return topicName + "\t" + Base64.getEncoder().encodeToString(bytes.toByteArray());
+	}
+}
@@ -0,0 +1,98 @@
+package org.salesforce.demo.events;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+import org.salesforce.demo.events.ChangeEventHeader.ChangeType;
+import org.salesforce.demo.fake.FakeEventGenerator;
+import org.salesforce.demo.fake.FakePubSubServer;
+
+public class EventFilterTest {
+	private final Schema schema;
+	private final FakeEventGenerator generator;
+	private final FieldBitmapIndex bitmapIndex;
+
+	public EventFilterTest() throws Exception {
+		schema = FakePubSubServer.loadFixtureSchema("AccountChangeEvent");
+		generator = new FakeEventGenerator(schema);
+		bitmapIndex = new FieldBitmapIndex(schema);
+	}
+
+	@Test
+	public void allAcceptsEveryEvent() {
+		assertTrue(EventFilter.all().acceptsAll());
+		assertTrue(EventFilter.all().matches(header("UPDATE", "Phone")));
+		assertFalse(EventFilter.all().withEntityNames("Account").acceptsAll());
+	}
+
+	@Test
+	public void filtersByEntityName() {
+		ChangeEventHeader header = header("UPDATE", "Phone");
+		assertTrue(EventFilter.all().withEntityNames("Contact", "Account").matches(header));
+		assertFalse(EventFilter.all().withEntityNames("Contact").matches(header));
+	}
+
+	@Test
+	public void filtersByChangeType() {
+		assertTrue(EventFilter.all().withChangeTypes(ChangeType.CREATE, ChangeType.UPDATE)
+				.matches(header("UPDATE", "Phone")));
+		assertFalse(EventFilter.all().withChangeTypes(ChangeType.DELETE).matches(header("UPDATE", "Phone")));
+		assertTrue(EventFilter.all().withChangeTypes(ChangeType.DELETE).matches(header("DELETE")));
+	}
+
+	@Test
+	public void filtersByChangedField() {
+		ChangeEventHeader header = header("UPDATE", "Phone", "Website");
+		assertTrue(EventFilter.all().withChangedFields("Website").matches(header));
+		assertFalse(EventFilter.all().withChangedFields("Fax").matches(header));
+	}
+
+	@Test
+	public void compoundFieldNameMatchesChangedComponents() {
+		ChangeEventHeader header = header("UPDATE", "BillingAddress.City");
+		assertTrue(EventFilter.all().withChangedFields("BillingAddress").matches(header));
+		assertTrue(EventFilter.all().withChangedFields("BillingAddress.City").matches(header));
+		assertFalse(EventFilter.all().withChangedFields("BillingAddress.Street").matches(header));
+		assertFalse(EventFilter.all().withChangedFields("ShippingAddress").matches(header));
+		// Only the name before the separator is a prefix
+		assertFalse(EventFilter.all().withChangedFields("Billing").matches(header));
+	}
+
+	@Test
+	public void matchesFieldsOfBitmaps() {
+		// BillingAddress is at position 2, City is its second field, Phone is at position 6
+		ChangeEventHeader header = header("UPDATE", "0x44", "2-0x02");
+		assertTrue(EventFilter.all().withChangedFields("Phone").matches(header));
+		assertTrue(EventFilter.all().withChangedFields("BillingAddress").matches(header));
+		assertFalse(EventFilter.all().withChangedFields("Fax").matches(header));
+	}
+
+	@Test
+	public void requiresEveryCriterion() {
+		ChangeEventHeader header = header("UPDATE", "Phone");
+		EventFilter filter = EventFilter.all().withEntityNames("Account").withChangeTypes(ChangeType.UPDATE);
+		assertTrue(filter.withChangedFields("Phone").matches(header));
+		assertFalse(filter.withChangedFields("Fax").matches(header));
+		assertFalse(filter.withChangeTypes(ChangeType.DELETE).matches(header));
+		assertFalse(filter.withEntityNames("Contact").withChangedFields("Phone").matches(header));
+	}
+
+	/**
+	 * @return header of a fixture Account change event
+	 */
+	private ChangeEventHeader header(String changeType, String... changedFields) {
+		GenericRecord header = (GenericRecord) generator.generateRecord(1).get("ChangeEventHeader");
+		header.put("changeType",
+				new GenericData.EnumSymbol(header.getSchema().getField("changeType").schema(), changeType));
+		List<String> fields = Arrays.asList(changedFields);
+		header.put("changedFields", fields);
+		return new ChangeEventHeader(bitmapIndex, header);
+	}
+}
@@ -0,0 +1,99 @@
+package org.salesforce.demo.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+import org.salesforce.demo.events.ChangeEventHeader.ChangeType;
+import org.salesforce.demo.fake.FakeEventGenerator;
+import org.salesforce.demo.fake.FakePubSubServer;
+
+import com.google.protobuf.ByteString;
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+
+public class EventParserTest {
+	private static final String SCHEMA_ID = "account-change-event";
+
+	private final Schema schema;
+	private final FakeEventGenerator generator;
+	private final SchemaCache schemaCache;
+	private final EventParser parser;
+
+	public EventParserTest() throws Exception {
+		schema = FakePubSubServer.loadFixtureSchema("AccountChangeEvent");
+		generator = new FakeEventGenerator(schema);
+		schemaCache = new SchemaCache(schemaId -> schema, 10, 60);
+		// Ordering keys are only read once the schema is loaded
+		schemaCache.get(SCHEMA_ID);
+		parser = new EventParser(schemaCache);
+	}
+
+	@Test
+	public void readsHeaderFromPrefixOfLargePayload() throws Exception {
+		GenericRecord record = generator.generateRecord(42);
+		record.put("Description", "x".repeat(4 * EventParser.PREFIX_SIZE));
+		ConsumerEvent event = toEvent(record);
+
+		assertReadsHeader(event, "fake-transaction-42", "001000000000000042");
+	}
+
+	@Test
+	public void readsHeaderExtendingPastPrefix() throws Exception {
+		GenericRecord record = generator.generateRecord(42);
+		List<String> recordIds = new ArrayList<>();
+		for (int i = 0; i < EventParser.PREFIX_SIZE / 10; i++) {
+			recordIds.add(String.format("001%015d", 42 + i));
+		}
+		GenericRecord header = (GenericRecord) record.get("ChangeEventHeader");
+		header.put("recordIds", recordIds);
+		ConsumerEvent event = toEvent(record);
+
+		assertReadsHeader(event, "fake-transaction-42", "001000000000000042");
+	}
+
+	@Test
+	public void readsHeaderOfSmallPayload() throws Exception {
+		assertReadsHeader(toEvent(generator.generateRecord(7)), "fake-transaction-7", "001000000000000007");
+	}
+
+	@Test
+	public void keptHeaderIsNotOverwrittenWhenRecordsAreReused() throws Exception {
+		EventParser reusingParser = new EventParser(schemaCache, true);
+		Event first = reusingParser.parse(toEvent(generator.generateRecord(1)));
+		Event second = reusingParser.parse(toEvent(generator.generateRecord(2)));
+
+		// The payload record is recycled, the header isn't
+		assertEquals(second.getPayload(), first.getPayload());
+		assertEquals("fake-transaction-1", first.getHeader().getTransactionKey());
+		assertEquals(List.of("001000000000000001"), first.getHeader().getRecordIds());
+		assertEquals("fake-transaction-2", second.getHeader().getTransactionKey());
+	}
+
+	private void assertReadsHeader(ConsumerEvent event, String transactionKey, String recordId) throws Exception {
+		assertEquals(transactionKey, parser.parseOrderingKey(event, OrderingKey.TRANSACTION_KEY));
+		assertEquals(recordId, parser.parseOrderingKey(event, OrderingKey.RECORD_ID));
+		assertTrue(parser.matches(event, EventFilter.all().withEntityNames("Account")));
+		assertFalse(parser.matches(event, EventFilter.all().withChangeTypes(ChangeType.DELETE)));
+		assertEquals(transactionKey, parser.parse(event).getHeader().getTransactionKey());
+	}
+
+	private ConsumerEvent toEvent(GenericRecord record) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+		new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+		ProducerEvent event = ProducerEvent.newBuilder().setSchemaId(SCHEMA_ID)
+				.setPayload(ByteString.copyFrom(out.toByteArray())).build();
+		return ConsumerEvent.newBuilder().setEvent(event).setReplayId(ReplayId.fromLong(1)).build();
+	}
+}
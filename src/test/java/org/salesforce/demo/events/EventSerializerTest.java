@@ -0,0 +1,114 @@
+package org.salesforce.demo.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+import org.salesforce.demo.events.EventSerializer.EventSerializeException;
+import org.salesforce.demo.events.EventSerializer.PooledEvent;
+import org.salesforce.demo.fake.FakeEventGenerator;
+import org.salesforce.demo.fake.FakePubSubServer;
+
+import com.google.protobuf.ByteString;
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+
+public class EventSerializerTest {
+	private static final String SCHEMA_ID = "account-change-event";
+
+	private final FakeEventGenerator generator;
+	private final SchemaCache schemaCache;
+	private final EventSerializer serializer;
+
+	public EventSerializerTest() throws Exception {
+		Schema schema = FakePubSubServer.loadFixtureSchema("AccountChangeEvent");
+		generator = new FakeEventGenerator(schema);
+		schemaCache = new SchemaCache(schemaId -> {
+			if (!schemaId.equals(SCHEMA_ID)) {
+				throw new IllegalArgumentException("Unknown schema " + schemaId);
+			}
+			return schema;
+		}, 10, 60);
+		serializer = new EventSerializer(schemaCache, 4);
+	}
+
+	@Test
+	public void serializesRecordsThatParse() throws Exception {
+		ProducerEvent event = serializer.serialize(SCHEMA_ID, generator.generateRecord(42));
+
+		assertEquals(SCHEMA_ID, event.getSchemaId());
+		ConsumerEvent received = ConsumerEvent.newBuilder().setEvent(event).setReplayId(ReplayId.fromLong(42)).build();
+		Event parsed = new EventParser(schemaCache).parse(received);
+		assertEquals("fake-transaction-42", parsed.getHeader().getTransactionKey());
+	}
+
+	@Test
+	public void pooledEventMatchesUnpooledEvent() throws Exception {
+		GenericRecord record = generator.generateRecord(42);
+		PooledEvent pooled = serializer.serializePooled(SCHEMA_ID, record);
+
+		assertEquals(serializer.serialize(SCHEMA_ID, record), pooled.getEvent());
+		pooled.release();
+	}
+
+	@Test
+	public void reusesBufferOnceReleased() throws Exception {
+		PooledEvent first = serializer.serializePooled(SCHEMA_ID, generator.generateRecord(1));
+		ByteString firstPayload = ByteString.copyFrom(first.getEvent().getPayload().toByteArray());
+		first.release();
+		PooledEvent second = serializer.serializePooled(SCHEMA_ID, generator.generateRecord(2));
+
+		// The buffer of the released event now backs the second one
+		assertNotEquals(firstPayload, first.getEvent().getPayload());
+		assertEquals(second.getEvent().getPayload(),
+				first.getEvent().getPayload().substring(0, second.getEvent().getPayload().size()));
+	}
+
+	@Test
+	public void doesNotReuseBufferBeforeRelease() throws Exception {
+		GenericRecord record = generator.generateRecord(1);
+		PooledEvent first = serializer.serializePooled(SCHEMA_ID, record);
+		serializer.serializePooled(SCHEMA_ID, generator.generateRecord(2)).release();
+		serializer.serializePooled(SCHEMA_ID, generator.generateRecord(3));
+
+		assertEquals(serializer.serialize(SCHEMA_ID, record), first.getEvent());
+	}
+
+	@Test
+	public void releasingTwiceDoesNotShareBuffer() throws Exception {
+		PooledEvent released = serializer.serializePooled(SCHEMA_ID, generator.generateRecord(1));
+		released.release();
+		released.release();
+
+		GenericRecord record = generator.generateRecord(2);
+		PooledEvent first = serializer.serializePooled(SCHEMA_ID, record);
+		serializer.serializePooled(SCHEMA_ID, generator.generateRecord(3));
+		assertEquals(serializer.serialize(SCHEMA_ID, record), first.getEvent());
+	}
+
+	@Test
+	public void doesNotPoolLargeBuffers() throws Exception {
+		GenericRecord large = generator.generateRecord(1);
+		large.put("Description", "x".repeat(100 * 1024));
+		PooledEvent first = serializer.serializePooled(SCHEMA_ID, large);
+		ProducerEvent expected = serializer.serialize(SCHEMA_ID, large);
+		first.release();
+		serializer.serializePooled(SCHEMA_ID, generator.generateRecord(2));
+
+		assertEquals(expected, first.getEvent());
+	}
+
+	@Test
+	public void reportsInvalidRecords() {
+		GenericRecord invalid = generator.generateRecord(1);
+		((GenericRecord) invalid.get("ChangeEventHeader")).put("entityName", null);
+
+		assertThrows(EventSerializeException.class, () -> serializer.serializePooled(SCHEMA_ID, invalid));
+		assertThrows(EventSerializeException.class,
+				() -> serializer.serialize("unknown", new GenericData.Record(invalid.getSchema())));
+	}
+}
@@ -0,0 +1,132 @@
+package org.salesforce.demo.events;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaBuilder.FieldAssembler;
+import org.junit.Test;
+
+public class FieldBitmapIndexTest {
+	private static final int PLAIN_FIELD_COUNT = 67;
+
+	private final Schema schema = buildSchema();
+	private final FieldBitmapIndex index = new FieldBitmapIndex(schema);
+
+	@Test
+	public void expandsTopLevelFields() {
+		// Positions 3 and 5
+		assertExpands(Arrays.asList("Field3", "Field5"), "0x28");
+	}
+
+	@Test
+	public void expandsCompoundField() {
+		// BillingAddress is at position 2, City is its second field
+		assertExpands(Arrays.asList("BillingAddress", "BillingAddress.City"), "0x04", "2-0x02");
+	}
+
+	@Test
+	public void expandsCompoundFieldWithAllChildrenToItsName() {
+		assertExpands(Arrays.asList("BillingAddress", "BillingAddress"), "0x04", "2-0x03FF");
+	}
+
+	@Test
+	public void expandsBitsBeyondSixtyFourFields() {
+		// Positions 3 and 66
+		assertExpands(Arrays.asList("Field3", "Field66"), "0x040000000000000008");
+	}
+
+	@Test
+	public void expandsEmptyBitmap() {
+		assertExpands(Collections.emptyList(), "0x00");
+		assertExpands(Collections.emptyList());
+	}
+
+	private void assertExpands(List<String> expected, String... values) {
+		assertEquals(expected, index.expand(Arrays.asList(values)));
+		assertEquals("differs from the original expansion", expandWithBitSet(schema, values),
+				index.expand(Arrays.asList(values)));
+	}
+
+	/**
+	 * Schema shaped like a change event: a header, a person name and an address compound, then plain fields up to
+	 * position 69
+	 */
+	private static Schema buildSchema() {
+		Schema header = SchemaBuilder.record("ChangeEventHeader").fields().requiredString("entityName").endRecord();
+		Schema personName = SchemaBuilder.record("Switchable_PersonName").fields().optionalString("FirstName")
+				.optionalString("LastName").endRecord();
+		Schema address = SchemaBuilder.record("Address").fields().optionalString("Street").optionalString("City")
+				.optionalString("State").optionalString("PostalCode").optionalString("Country")
+				.optionalString("StateCode").optionalString("CountryCode").optionalDouble("Latitude")
+				.optionalDouble("Longitude").optionalString("GeocodeAccuracy").endRecord();
+		FieldAssembler<Schema> fields = SchemaBuilder.record("AccountChangeEvent").fields()
+				.name("ChangeEventHeader").type(header).noDefault()
+				.name("Name").type().unionOf().nullType().and().stringType().and().type(personName).endUnion()
+				.nullDefault()
+				.name("BillingAddress").type().optional().type(address);
+		for (int i = 3; i < 3 + PLAIN_FIELD_COUNT; i++) {
+			fields = fields.optionalString("Field" + i);
+		}
+		return fields.endRecord();
+	}
+
+	/**
+	 * Expansion as it was done before the lookup tables: bitmaps are parsed into a BitSet and compound entries are
+	 * resolved against the schema
+	 */
+	private static List<String> expandWithBitSet(Schema schema, String... values) {
+		List<String> val = new ArrayList<>(Arrays.asList(values));
+		if (val.isEmpty()) {
+			return val;
+		}
+		if (val.get(0).startsWith("0x")) {
+			String bitMap = val.get(0);
+			val.addAll(0, fieldNamesFromBitmap(schema, bitMap));
+			val.remove(bitMap);
+		}
+		if (!val.isEmpty() && val.get(val.size() - 1).contains("-")) {
+			for (ListIterator<String> itr = val.listIterator(); itr.hasNext();) {
+				String[] bitmapMapStrings = itr.next().split("-");
+				if (bitmapMapStrings.length < 2) {
+					continue;
+				}
+				Schema.Field parentField = schema.getFields().get(Integer.valueOf(bitmapMapStrings[0]));
+				Schema childSchema = parentField.schema().getTypes().get(1);
+				List<String> fullFieldNames = new ArrayList<>();
+				for (String child : fieldNamesFromBitmap(childSchema, bitmapMapStrings[1])) {
+					fullFieldNames.add(parentField.name() + "." + child);
+				}
+				if (!fullFieldNames.isEmpty()) {
+					itr.remove();
+					if (fullFieldNames.size() == childSchema.getFields().size()) {
+						itr.add(parentField.name());
+					} else {
+						fullFieldNames.forEach(itr::add);
+					}
+				}
+			}
+		}
+		return val;
+	}
+
+	private static List<String> fieldNamesFromBitmap(Schema schema, String bitmap) {
+		String hex = bitmap.substring(2);
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			// Bytes are reversed: the last pair of digits holds the lowest positions
+			bytes[bytes.length - 1 - i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4)
+					+ Character.digit(hex.charAt(2 * i + 1), 16));
+		}
+		List<String> names = new ArrayList<>();
+		BitSet.valueOf(bytes).stream().forEach(pos -> names.add(schema.getFields().get(pos).name()));
+		return names;
+	}
+}
@@ -0,0 +1,92 @@
+package org.salesforce.demo.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+import org.salesforce.demo.events.SchemaCache.CachedSchema;
+import org.salesforce.demo.fake.FakeEventGenerator;
+import org.salesforce.demo.fake.FakePubSubServer;
+
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+
+public class FieldProjectionTest {
+	private static final String SCHEMA_ID = "account-change-event";
+
+	private final Schema schema;
+	private final FakeEventGenerator generator;
+	private final SchemaCache schemaCache;
+
+	public FieldProjectionTest() throws Exception {
+		schema = FakePubSubServer.loadFixtureSchema("AccountChangeEvent");
+		generator = new FakeEventGenerator(schema);
+		schemaCache = new SchemaCache(schemaId -> schema, 10, 60);
+	}
+
+	@Test
+	public void projectsHeaderAndFieldsInWriterOrder() {
+		Schema projected = FieldProjection.of("Phone", "Name", "NotAField").project(schema);
+
+		assertEquals(schema.getFullName(), projected.getFullName());
+		assertEquals(Arrays.asList("ChangeEventHeader", "Name", "Phone"), fieldNames(projected));
+		assertEquals(schema.getField("Phone").schema(), projected.getField("Phone").schema());
+	}
+
+	@Test
+	public void projectsCompoundFieldAsWhole() {
+		Schema projected = FieldProjection.of("BillingAddress").project(schema);
+
+		assertEquals(Arrays.asList("ChangeEventHeader", "BillingAddress"), fieldNames(projected));
+		assertEquals(schema.getField("BillingAddress").schema(), projected.getField("BillingAddress").schema());
+	}
+
+	@Test
+	public void projectsEventsWithoutHeader() {
+		Schema platformEvent = SchemaBuilder.record("Order_Event__e").fields().requiredString("OrderId__c")
+				.requiredLong("CreatedDate").endRecord();
+
+		assertEquals(Arrays.asList("OrderId__c"), fieldNames(FieldProjection.of("OrderId__c").project(platformEvent)));
+	}
+
+	@Test
+	public void decodesOnlyProjectedFields() throws Exception {
+		GenericRecord written = generator.generateRecord(42);
+		ConsumerEvent event = ConsumerEvent.newBuilder().setReplayId(ReplayId.fromLong(42))
+				.setEvent(ProducerEvent.newBuilder().setSchemaId(SCHEMA_ID).setPayload(generator.generate(42)))
+				.build();
+
+		Event parsed = new EventParser(schemaCache).withProjection(FieldProjection.of("Name", "Phone")).parse(event);
+		GenericRecord payload = parsed.getPayload();
+		assertEquals(Arrays.asList("ChangeEventHeader", "Name", "Phone"), fieldNames(payload.getSchema()));
+		assertNull(payload.getSchema().getField("Description"));
+		assertEquals(written.get("Phone").toString(), payload.get("Phone").toString());
+		assertEquals("fake-transaction-42", parsed.getHeader().getTransactionKey());
+	}
+
+	@Test
+	public void equalProjectionsShareReader() throws Exception {
+		CachedSchema cachedSchema = schemaCache.get(SCHEMA_ID);
+
+		assertEquals(FieldProjection.of("Name", "Phone"), FieldProjection.of("Phone", "Name"));
+		assertEquals(FieldProjection.of("Name", "Phone").hashCode(), FieldProjection.of("Phone", "Name").hashCode());
+		assertSame(cachedSchema.getProjectedReader(FieldProjection.of("Name", "Phone")),
+				cachedSchema.getProjectedReader(FieldProjection.of("Phone", "Name")));
+	}
+
+	private static List<String> fieldNames(Schema schema) {
+		List<String> names = new ArrayList<>();
+		for (Schema.Field field : schema.getFields()) {
+			names.add(field.name());
+		}
+		return names;
+	}
+}
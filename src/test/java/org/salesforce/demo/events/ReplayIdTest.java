@@ -0,0 +1,60 @@
+package org.salesforce.demo.events;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class ReplayIdTest {
+
+	@Test
+	public void roundTripsLongs() {
+		long[] values = { 0, 1, 255, 256, 1L << 32, Long.MAX_VALUE, Long.MIN_VALUE, -2 };
+		for (long value : values) {
+			assertEquals(value, ReplayId.toLong(ReplayId.fromLong(value)));
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			long value = random.nextLong();
+			assertEquals(value, ReplayId.toLong(ReplayId.fromLong(value)));
+		}
+	}
+
+	@Test
+	public void encodesBigEndian() {
+		byte[] expected = ByteBuffer.allocate(Long.BYTES).putLong(0x0102030405060708L).array();
+		assertArrayEquals(expected, ReplayId.fromLong(0x0102030405060708L).toByteArray());
+	}
+
+	@Test
+	public void readsIdsSplitAcrossChunks() {
+		ByteString replayId = ByteString.copyFrom(new byte[] { 0, 0, 0, 0 })
+				.concat(ByteString.copyFrom(new byte[] { 0, 0, 1, 2 }));
+		assertEquals(0x0102, ReplayId.toLong(replayId));
+	}
+
+	@Test
+	public void idsOfOtherLengthsAreOpaque() {
+		ByteString[] replayIds = { ByteString.EMPTY, ByteString.copyFrom(new byte[] { 1, 2, 3, 4 }),
+				ByteString.copyFrom(new byte[Long.BYTES + 1]) };
+		for (ByteString replayId : replayIds) {
+			assertFalse(ReplayId.isNumeric(replayId));
+			assertEquals(ReplayId.OPAQUE, ReplayId.toLong(replayId));
+		}
+	}
+
+	@Test
+	public void numericMinusOneIsNotOpaque() {
+		ByteString replayId = ReplayId.fromLong(-1);
+		// Same value as OPAQUE, only isNumeric tells them apart
+		assertEquals(ReplayId.OPAQUE, ReplayId.toLong(replayId));
+		assertTrue(ReplayId.isNumeric(replayId));
+	}
+}
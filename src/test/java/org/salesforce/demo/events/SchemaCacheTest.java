@@ -0,0 +1,125 @@
+package org.salesforce.demo.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.junit.Test;
+import org.salesforce.demo.events.SchemaCache.CachedSchema;
+import org.salesforce.demo.events.SchemaCache.SchemaResolutionException;
+import org.salesforce.demo.metrics.MetricsRegistry;
+
+public class SchemaCacheTest {
+	private static final Schema SCHEMA = SchemaBuilder.record("Test__e").fields().optionalString("Value__c")
+			.endRecord();
+
+	@Test
+	public void loadsOnceAndCaches() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		SchemaCache cache = new SchemaCache(schemaId -> {
+			loads.incrementAndGet();
+			return SCHEMA;
+		}, 10, 60);
+
+		assertSame(cache.get("a"), cache.get("a"));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void getAsyncLoadsOnExecutor() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			SchemaCache cache = new SchemaCache(schemaId -> {
+				release.await();
+				return SCHEMA;
+			}, 10, 60, new MetricsRegistry(), executor);
+
+			CompletableFuture<CachedSchema> future = cache.getAsync("a");
+			assertFalse(future.isDone());
+			assertNull(cache.getIfLoaded("a"));
+			release.countDown();
+
+			assertSame(SCHEMA, future.get(5, TimeUnit.SECONDS).getSchema());
+			assertSame(future.get(), cache.getIfLoaded("a"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void getIfLoadedDoesNotLoad() {
+		AtomicInteger loads = new AtomicInteger();
+		SchemaCache cache = new SchemaCache(schemaId -> {
+			loads.incrementAndGet();
+			return SCHEMA;
+		}, 10, 60);
+
+		assertNull(cache.getIfLoaded("a"));
+		assertEquals(0, loads.get());
+	}
+
+	@Test
+	public void errorDuringLoadIsNotCached() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		SchemaCache cache = new SchemaCache(schemaId -> {
+			if (loads.incrementAndGet() == 1) {
+				throw new StackOverflowError("too deep");
+			}
+			return SCHEMA;
+		}, 10, 60);
+
+		assertThrows(StackOverflowError.class, () -> cache.get("a"));
+		assertSame(SCHEMA, cache.get("a").getSchema());
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void errorDuringLoadReleasesWaiters() throws Exception {
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch fail = new CountDownLatch(1);
+		SchemaCache cache = new SchemaCache(schemaId -> {
+			loading.countDown();
+			fail.await();
+			throw new StackOverflowError("too deep");
+		}, 10, 60);
+
+		CompletableFuture<Void> loader = CompletableFuture.runAsync(() -> {
+			try {
+				cache.get("a");
+			} catch (SchemaResolutionException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		assertTrue(loading.await(5, TimeUnit.SECONDS));
+		CompletableFuture<Throwable> waiter = CompletableFuture.supplyAsync(() -> {
+			try {
+				cache.get("a");
+				return null;
+			} catch (SchemaResolutionException e) {
+				return e;
+			}
+		});
+		// Give the waiter time to block on the pending load
+		Thread.sleep(100);
+		fail.countDown();
+
+		assertTrue(waiter.get(5, TimeUnit.SECONDS) instanceof SchemaResolutionException);
+		ExecutionException loaderFailure = assertThrows(ExecutionException.class,
+				() -> loader.get(5, TimeUnit.SECONDS));
+		assertTrue(loaderFailure.getCause() instanceof StackOverflowError);
+	}
+}
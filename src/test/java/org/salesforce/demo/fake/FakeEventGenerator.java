@@ -0,0 +1,149 @@
+package org.salesforce.demo.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Generates change event payloads for any schema with a ChangeEventHeader. Every field gets a value derived from the
+ * replay ID, so the same ID always yields the same event, and each event changes a few fields.
+ */
+public class FakeEventGenerator {
+	private static final int RECORD_ID_COUNT = 1000;
+
+	private final Schema schema;
+	private final GenericDatumWriter<GenericRecord> writer;
+
+	public FakeEventGenerator(Schema schema) {
+		this.schema = schema;
+		this.writer = new GenericDatumWriter<>(schema);
+	}
+
+	/**
+	 * @param replayId
+	 * @return encoded payload of the event
+	 */
+	public ByteString generate(long replayId) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+			BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+			writer.write(generateRecord(replayId), encoder);
+			return ByteString.copyFrom(out.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to encode event " + replayId + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param replayId
+	 * @return event record
+	 */
+	public GenericRecord generateRecord(long replayId) {
+		GenericRecord record = new GenericData.Record(schema);
+		for (Schema.Field field : schema.getFields()) {
+			if (field.name().equals("ChangeEventHeader")) {
+				record.put(field.pos(), buildHeader(field.schema(), replayId));
+			} else {
+				record.put(field.pos(), generateValue(field.name(), field.schema(), replayId));
+			}
+		}
+		return record;
+	}
+
+	private GenericRecord buildHeader(Schema headerSchema, long replayId) {
+		GenericRecord header = new GenericData.Record(headerSchema);
+		String entityName = schema.getName().endsWith("ChangeEvent")
+				? schema.getName().substring(0, schema.getName().length() - "ChangeEvent".length())
+				: schema.getName();
+		header.put("entityName", entityName);
+		header.put("recordIds", Collections.singletonList(String.format("001%015d", replayId % RECORD_ID_COUNT)));
+		Schema changeTypeSchema = headerSchema.getField("changeType").schema();
+		header.put("changeType", new GenericData.EnumSymbol(changeTypeSchema, "UPDATE"));
+		header.put("changeOrigin", "com/salesforce/api/fake");
+		header.put("transactionKey", "fake-transaction-" + replayId);
+		header.put("sequenceNumber", 1);
+		header.put("commitTimestamp", System.currentTimeMillis());
+		header.put("commitNumber", replayId);
+		header.put("commitUser", "005000000000001AAA");
+		header.put("nulledFields", Collections.emptyList());
+		header.put("diffFields", Collections.emptyList());
+		header.put("changedFields", changedFields(replayId));
+		return header;
+	}
+
+	/**
+	 * @return bitmap of two top level fields that vary with the replay ID
+	 */
+	private List<String> changedFields(long replayId) {
+		int fieldCount = schema.getFields().size();
+		List<String> changedFields = new ArrayList<>();
+		if (fieldCount < 2) {
+			return changedFields;
+		}
+		int first = 1 + (int) (replayId % (fieldCount - 1));
+		int second = 1 + (int) ((replayId / 7) % (fieldCount - 1));
+		char[] digits = new char[(fieldCount + 3) / 4];
+		int[] values = new int[digits.length];
+		for (int position : new int[] { first, second }) {
+			values[values.length - 1 - position / 4] |= 1 << (position % 4);
+		}
+		for (int i = 0; i < digits.length; i++) {
+			digits[i] = Character.toUpperCase(Character.forDigit(values[i], 16));
+		}
+		changedFields.add("0x" + new String(digits));
+		return changedFields;
+	}
+
+	private static Object generateValue(String name, Schema fieldSchema, long replayId) {
+		switch (fieldSchema.getType()) {
+		case UNION:
+			// Prefer the richest branch, such as the compound of a Switchable_PersonName
+			Schema branch = null;
+			for (Schema type : fieldSchema.getTypes()) {
+				if (type.getType() != Schema.Type.NULL) {
+					branch = type;
+				}
+			}
+			return branch == null ? null : generateValue(name, branch, replayId);
+		case RECORD:
+			GenericRecord record = new GenericData.Record(fieldSchema);
+			for (Schema.Field field : fieldSchema.getFields()) {
+				record.put(field.pos(), generateValue(field.name(), field.schema(), replayId));
+			}
+			return record;
+		case STRING:
+			return name + " " + replayId;
+		case LONG:
+			return replayId;
+		case INT:
+			return (int) replayId;
+		case DOUBLE:
+			return replayId / 10.0;
+		case FLOAT:
+			return replayId / 10.0f;
+		case BOOLEAN:
+			return replayId % 2 == 0;
+		case ENUM:
+			return new GenericData.EnumSymbol(fieldSchema, fieldSchema.getEnumSymbols().get(0));
+		case ARRAY:
+			return Collections.emptyList();
+		case BYTES:
+			return ByteBuffer.wrap(Long.toString(replayId).getBytes(StandardCharsets.UTF_8));
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.salesforce.demo.fake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.Schema;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+/**
+ * In-process server running a {@link FakePubSubService}, with the Account change event fixture topic
+ */
+public class FakePubSubServer implements AutoCloseable {
+	public static final String ACCOUNT_CHANGE_TOPIC = "/data/AccountChangeEvent";
+
+	private final String name;
+	private final FakePubSubService service;
+	private final ScheduledExecutorService streamExecutor;
+	private final ScheduledExecutorService publishExecutor;
+	private final Server server;
+
+	private FakePubSubServer(String name, FakePubSubService service, ScheduledExecutorService streamExecutor,
+			ScheduledExecutorService publishExecutor) throws IOException {
+		this.name = name;
+		this.service = service;
+		this.streamExecutor = streamExecutor;
+		this.publishExecutor = publishExecutor;
+		this.server = InProcessServerBuilder.forName(name).addService(service).build().start();
+	}
+
+	/**
+	 * Starts a server
+	 *
+	 * @param name     in-process server name, which channels connect to
+	 * @param settings
+	 * @return running server
+	 * @throws IOException
+	 */
+	public static FakePubSubServer start(String name, FakePubSubService.Settings settings) throws IOException {
+		ScheduledExecutorService streamExecutor = Executors.newScheduledThreadPool(
+				Runtime.getRuntime().availableProcessors(), daemonThreads("fake-pubsub-stream-"));
+		ScheduledExecutorService publishExecutor = Executors
+				.newSingleThreadScheduledExecutor(daemonThreads("fake-pubsub-publish-"));
+		FakePubSubService service = new FakePubSubService(settings, streamExecutor, publishExecutor);
+		service.addTopic(ACCOUNT_CHANGE_TOPIC, loadFixtureSchema("AccountChangeEvent"));
+		return new FakePubSubServer(name, service, streamExecutor, publishExecutor);
+	}
+
+	/**
+	 * @param schemaName name of a schema under the fixtures resource directory
+	 * @return schema
+	 * @throws IOException
+	 */
+	public static Schema loadFixtureSchema(String schemaName) throws IOException {
+		try (InputStream input = FakePubSubServer.class.getResourceAsStream("/fixtures/" + schemaName + ".avsc")) {
+			if (input == null) {
+				throw new IOException("Missing fixture schema " + schemaName);
+			}
+			return new Schema.Parser().parse(input);
+		}
+	}
+
+	public FakePubSubService getService() {
+		return service;
+	}
+
+	/**
+	 * @return new channel to the server
+	 */
+	public ManagedChannel newChannel() {
+		return InProcessChannelBuilder.forName(name).build();
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		server.shutdownNow();
+		server.awaitTermination(5, TimeUnit.SECONDS);
+		streamExecutor.shutdownNow();
+		publishExecutor.shutdownNow();
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,154 @@
+package org.salesforce.demo.fake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.avro.Schema;
+import org.junit.After;
+import org.junit.Test;
+import org.salesforce.demo.EventPublisher;
+import org.salesforce.demo.PubSubApiClient;
+import org.salesforce.demo.Subscription;
+import org.salesforce.demo.events.ReplayId;
+import org.salesforce.demo.utils.Config;
+
+import com.google.protobuf.ByteString;
+
+public class FakePubSubServerTest {
+	private static final String TOPIC_NAME = FakePubSubServer.ACCOUNT_CHANGE_TOPIC;
+	private static final AtomicInteger serverCount = new AtomicInteger();
+
+	private FakePubSubServer server;
+	private PubSubApiClient client;
+
+	@After
+	public void tearDown() throws Exception {
+		if (client != null) {
+			client.disconnect();
+		}
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	@Test
+	public void subscribeResumesAfterResetsWithoutGapsOrDuplicates() throws Exception {
+		connect(FakePubSubService.Settings.defaults().withResetAfterEvents(100));
+		List<Long> replayIds = Collections.synchronizedList(new ArrayList<>());
+
+		Subscription subscription = client.subscribe(TOPIC_NAME, 450,
+				(topicName, event) -> replayIds.add(event.getReplayId()));
+		subscription.getCompletion().get(30, TimeUnit.SECONDS);
+
+		List<Long> sorted = new ArrayList<>(replayIds);
+		Collections.sort(sorted);
+		assertEquals(450, sorted.size());
+		assertEquals("duplicate replay IDs", sorted.size(), new HashSet<>(sorted).size());
+		for (int i = 1; i < sorted.size(); i++) {
+			assertEquals("gap after replay ID " + sorted.get(i - 1), sorted.get(i - 1) + 1, (long) sorted.get(i));
+		}
+	}
+
+	@Test
+	public void subscribeStopsAtEventLimit() throws Exception {
+		connect(FakePubSubService.Settings.defaults());
+		AtomicInteger handled = new AtomicInteger();
+
+		Subscription subscription = client.subscribe(TOPIC_NAME, 37, (topicName, event) -> handled.incrementAndGet());
+		subscription.getCompletion().get(30, TimeUnit.SECONDS);
+		// Events handed off before the limit was reached would be handled after the completion
+		Thread.sleep(200);
+
+		assertEquals(37, handled.get());
+	}
+
+	@Test
+	public void subscribeDoesNotReconnectOnceLimitIsDelivered() throws Exception {
+		// The stream is reset right after delivering the limit, while the slow handler is still processing
+		connect(FakePubSubService.Settings.defaults().withResetAfterEvents(100));
+		List<Long> replayIds = Collections.synchronizedList(new ArrayList<>());
+
+		Subscription subscription = client.subscribe(TOPIC_NAME, 100, (topicName, event) -> {
+			replayIds.add(event.getReplayId());
+			Thread.sleep(20);
+		});
+		subscription.getCompletion().get(30, TimeUnit.SECONDS);
+		Thread.sleep(200);
+
+		assertEquals(100, replayIds.size());
+		assertEquals(100, (long) Collections.max(replayIds) - Collections.min(replayIds) + 1);
+	}
+
+	@Test
+	public void cancelDropsQueuedEvents() throws Exception {
+		Properties overrides = new Properties();
+		overrides.setProperty("pubSub.pipeline.workers", "2");
+		connect(FakePubSubService.Settings.defaults(), overrides);
+		AtomicInteger handled = new AtomicInteger();
+
+		Subscription subscription = client.subscribe(TOPIC_NAME, 0, (topicName, event) -> {
+			handled.incrementAndGet();
+			Thread.sleep(20);
+		});
+		while (handled.get() < 5) {
+			Thread.sleep(5);
+		}
+		subscription.cancel();
+		int handledAtCancel = handled.get();
+		Thread.sleep(300);
+
+		// Only the workers that had already taken an event may still call the handler
+		assertTrue(handled.get() - handledAtCancel <= 2);
+	}
+
+	@Test
+	public void publishStreamAcknowledgesEveryEvent() throws Exception {
+		connect(FakePubSubService.Settings.defaults().withLatencyMillis(5));
+		Schema schema = FakePubSubServer.loadFixtureSchema("AccountChangeEvent");
+		FakeEventGenerator generator = new FakeEventGenerator(schema);
+		EventPublisher publisher = client.createPublisher(TOPIC_NAME);
+
+		List<CompletableFuture<ByteString>> acknowledgements = new ArrayList<>();
+		for (long i = 1; i <= 500; i++) {
+			acknowledgements.add(publisher.publish(generator.generateRecord(i)));
+		}
+		CompletableFuture.allOf(acknowledgements.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+		for (CompletableFuture<ByteString> acknowledgement : acknowledgements) {
+			assertTrue(ReplayId.isNumeric(acknowledgement.get()));
+		}
+		assertTrue(publisher.close(5, TimeUnit.SECONDS));
+	}
+
+	private void connect(FakePubSubService.Settings settings) throws Exception {
+		connect(settings, new Properties());
+	}
+
+	private void connect(FakePubSubService.Settings settings, Properties overrides) throws Exception {
+		server = FakePubSubServer.start("fake-pubsub-test-" + serverCount.incrementAndGet(), settings);
+		Properties prop = new Properties();
+		// Login properties are mandatory but unused when connecting over existing channels
+		prop.setProperty("loginUrl", "https://login.invalid");
+		prop.setProperty("user.username", "test");
+		prop.setProperty("user.password", "unused");
+		prop.setProperty("user.token", "unused");
+		prop.setProperty("pubSub.endpoint", "in-process");
+		prop.setProperty("pubSub.topicName", TOPIC_NAME);
+		prop.setProperty("pubSub.eventReceiveLimit", "0");
+		prop.setProperty("pubSub.replayPreset", "EARLIEST");
+		prop.setProperty("pubSub.reconnect.initialBackoffMillis", "10");
+		prop.setProperty("pubSub.metrics.exportIntervalSeconds", "0");
+		prop.putAll(overrides);
+		client = new PubSubApiClient();
+		client.connect(Config.load(prop), Collections.singletonList(server.newChannel()));
+	}
+}
@@ -0,0 +1,365 @@
+package org.salesforce.demo.fake;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.salesforce.demo.events.ReplayId;
+
+import com.salesforce.eventbus.protobuf.ConsumerEvent;
+import com.salesforce.eventbus.protobuf.FetchRequest;
+import com.salesforce.eventbus.protobuf.FetchResponse;
+import com.salesforce.eventbus.protobuf.ProducerEvent;
+import com.salesforce.eventbus.protobuf.PubSubGrpc;
+import com.salesforce.eventbus.protobuf.PublishRequest;
+import com.salesforce.eventbus.protobuf.PublishResponse;
+import com.salesforce.eventbus.protobuf.PublishResult;
+import com.salesforce.eventbus.protobuf.SchemaInfo;
+import com.salesforce.eventbus.protobuf.SchemaRequest;
+import com.salesforce.eventbus.protobuf.TopicInfo;
+import com.salesforce.eventbus.protobuf.TopicRequest;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Stand-in for the Pub/Sub API that serves fixture topics and generates change events.
+ * Subscribe streams send events only as long as they have credits from the FetchRequests, at a configurable rate and
+ * with a configurable delay, and resume after the replay ID of the request. Streams can be reset after a number of
+ * events to exercise reconnects. Published events are acknowledged with increasing replay IDs but they are not
+ * delivered to subscribers, which receive generated events only.
+ */
+public class FakePubSubService extends PubSubGrpc.PubSubImplBase {
+	/**
+	 * Maximum number of events in a FetchResponse
+	 */
+	private static final int MAX_EVENTS_PER_RESPONSE = 100;
+	private static final long TICK_MILLIS = 5;
+
+	private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+	private final Map<String, Topic> topicsBySchemaId = new ConcurrentHashMap<>();
+	private final Settings settings;
+	private final ScheduledExecutorService streamExecutor;
+	private final ScheduledExecutorService publishExecutor;
+	private final AtomicLong rpcIds = new AtomicLong();
+
+	/**
+	 * @param settings
+	 * @param streamExecutor  runs the subscribe streams
+	 * @param publishExecutor single thread that sends delayed publish responses in order
+	 */
+	public FakePubSubService(Settings settings, ScheduledExecutorService streamExecutor,
+			ScheduledExecutorService publishExecutor) {
+		this.settings = settings;
+		this.streamExecutor = streamExecutor;
+		this.publishExecutor = publishExecutor;
+	}
+
+	/**
+	 * Adds a topic whose events conform to a schema
+	 *
+	 * @param topicName
+	 * @param schema
+	 */
+	public void addTopic(String topicName, Schema schema) {
+		Topic topic = new Topic(topicName, schema);
+		topics.put(topicName, topic);
+		topicsBySchemaId.put(topic.schemaId, topic);
+	}
+
+	@Override
+	public void getTopic(TopicRequest request, StreamObserver<TopicInfo> responseObserver) {
+		Topic topic = topics.get(request.getTopicName());
+		if (topic == null) {
+			responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown topic " + request.getTopicName())
+					.asRuntimeException());
+			return;
+		}
+		responseObserver.onNext(TopicInfo.newBuilder().setTopicName(topic.name).setTenantGuid("fake-tenant")
+				.setCanPublish(true).setCanSubscribe(true).setSchemaId(topic.schemaId).setRpcId(nextRpcId()).build());
+		responseObserver.onCompleted();
+	}
+
+	@Override
+	public void getSchema(SchemaRequest request, StreamObserver<SchemaInfo> responseObserver) {
+		Topic topic = topicsBySchemaId.get(request.getSchemaId());
+		if (topic == null) {
+			responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown schema " + request.getSchemaId())
+					.asRuntimeException());
+			return;
+		}
+		responseObserver.onNext(SchemaInfo.newBuilder().setSchemaId(topic.schemaId)
+				.setSchemaJson(topic.schema.toString()).setRpcId(nextRpcId()).build());
+		responseObserver.onCompleted();
+	}
+
+	@Override
+	public StreamObserver<FetchRequest> subscribe(StreamObserver<FetchResponse> responseObserver) {
+		return new SubscribeStream((ServerCallStreamObserver<FetchResponse>) responseObserver);
+	}
+
+	@Override
+	public void publish(PublishRequest request, StreamObserver<PublishResponse> responseObserver) {
+		PublishResponse response = buildPublishResponse(request);
+		respondLater(() -> {
+			responseObserver.onNext(response);
+			responseObserver.onCompleted();
+		});
+	}
+
+	@Override
+	public StreamObserver<PublishRequest> publishStream(StreamObserver<PublishResponse> responseObserver) {
+		return new StreamObserver<PublishRequest>() {
+			@Override
+			public void onNext(PublishRequest request) {
+				PublishResponse response = buildPublishResponse(request);
+				respondLater(() -> responseObserver.onNext(response));
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				// The client went away
+			}
+
+			@Override
+			public void onCompleted() {
+				respondLater(responseObserver::onCompleted);
+			}
+		};
+	}
+
+	private PublishResponse buildPublishResponse(PublishRequest request) {
+		Topic topic = topics.get(request.getTopicName());
+		PublishResponse.Builder response = PublishResponse.newBuilder().setRpcId(nextRpcId());
+		for (ProducerEvent event : request.getEventsList()) {
+			PublishResult.Builder result = PublishResult.newBuilder();
+			if (topic == null) {
+				result.setError(com.salesforce.eventbus.protobuf.Error.newBuilder()
+						.setMsg("Unknown topic " + request.getTopicName()));
+			} else if (!topic.schemaId.equals(event.getSchemaId())) {
+				result.setError(com.salesforce.eventbus.protobuf.Error.newBuilder()
+						.setMsg("Unknown schema " + event.getSchemaId()));
+			} else {
+				result.setReplayId(ReplayId.fromLong(topic.publishedReplayIds.incrementAndGet()));
+			}
+			response.addResults(result);
+		}
+		return response.build();
+	}
+
+	private void respondLater(Runnable response) {
+		// A single thread keeps responses in the order of the requests
+		publishExecutor.schedule(response, settings.latencyMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private String nextRpcId() {
+		return "fake-rpc-" + rpcIds.incrementAndGet();
+	}
+
+	/**
+	 * Topic and its generated events
+	 */
+	private static class Topic {
+		private final String name;
+		private final Schema schema;
+		private final String schemaId;
+		private final FakeEventGenerator generator;
+		/**
+		 * Highest replay ID sent on any stream, new LATEST subscriptions start after it
+		 */
+		private final AtomicLong latestReplayId = new AtomicLong();
+		private final AtomicLong publishedReplayIds = new AtomicLong();
+
+		private Topic(String name, Schema schema) {
+			this.name = name;
+			this.schema = schema;
+			this.schemaId = Long.toHexString(SchemaNormalization.parsingFingerprint64(schema));
+			this.generator = new FakeEventGenerator(schema);
+		}
+	}
+
+	/**
+	 * Server side of a subscribe stream. A periodic task sends the responses that are due and generates new ones
+	 * from the available credits and rate.
+	 */
+	private class SubscribeStream implements StreamObserver<FetchRequest> {
+		private final ServerCallStreamObserver<FetchResponse> responses;
+		private final Deque<PendingResponse> pending = new ArrayDeque<>();
+		private Topic topic;
+		private long nextReplayId;
+		private long credits = 0;
+		private long generated = 0;
+		private double tokens = 0;
+		private long lastTickNanos;
+		private ScheduledFuture<?> ticker;
+		private boolean closed = false;
+
+		private SubscribeStream(ServerCallStreamObserver<FetchResponse> responses) {
+			this.responses = responses;
+			responses.setOnCancelHandler(this::close);
+		}
+
+		@Override
+		public synchronized void onNext(FetchRequest request) {
+			if (closed) {
+				return;
+			}
+			if (topic == null) {
+				topic = topics.get(request.getTopicName());
+				if (topic == null) {
+					fail(Status.NOT_FOUND.withDescription("Unknown topic " + request.getTopicName()));
+					return;
+				}
+				switch (request.getReplayPreset()) {
+				case EARLIEST:
+					nextReplayId = 1;
+					break;
+				case CUSTOM:
+					nextReplayId = ReplayId.toLong(request.getReplayId()) + 1;
+					break;
+				default:
+					nextReplayId = topic.latestReplayId.get() + 1;
+					break;
+				}
+				lastTickNanos = System.nanoTime();
+				ticker = streamExecutor.scheduleWithFixedDelay(this::tick, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			credits += request.getNumRequested();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			close();
+		}
+
+		@Override
+		public synchronized void onCompleted() {
+			close();
+			responses.onCompleted();
+		}
+
+		private synchronized void tick() {
+			if (closed) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (settings.resetAfterEvents > 0 && generated >= settings.resetAfterEvents && pending.isEmpty()) {
+				fail(Status.UNAVAILABLE.withDescription("Simulated stream reset"));
+				return;
+			}
+			generate(now);
+			while (!pending.isEmpty() && pending.peek().dueNanos <= now && responses.isReady()) {
+				responses.onNext(pending.poll().response);
+			}
+		}
+
+		private void generate(long now) {
+			long count = Math.min(credits, MAX_EVENTS_PER_RESPONSE);
+			if (settings.resetAfterEvents > 0) {
+				count = Math.min(count, settings.resetAfterEvents - generated);
+			}
+			if (settings.eventsPerSecond > 0) {
+				// Token bucket holding at most one second worth of events
+				tokens = Math.min(settings.eventsPerSecond,
+						tokens + (now - lastTickNanos) / 1e9 * settings.eventsPerSecond);
+				count = Math.min(count, (long) tokens);
+				tokens -= count;
+			}
+			lastTickNanos = now;
+			if (count <= 0) {
+				return;
+			}
+			FetchResponse.Builder response = FetchResponse.newBuilder().setRpcId(nextRpcId());
+			for (int i = 0; i < count; i++) {
+				long replayId = nextReplayId++;
+				ProducerEvent event = ProducerEvent.newBuilder().setSchemaId(topic.schemaId)
+						.setPayload(topic.generator.generate(replayId)).build();
+				response.addEvents(ConsumerEvent.newBuilder().setEvent(event).setReplayId(ReplayId.fromLong(replayId)));
+			}
+			long latestReplayId = nextReplayId - 1;
+			topic.latestReplayId.accumulateAndGet(latestReplayId, Math::max);
+			credits -= count;
+			generated += count;
+			response.setLatestReplayId(ReplayId.fromLong(latestReplayId)).setPendingNumRequested((int) credits);
+			pending.add(new PendingResponse(response.build(),
+					now + TimeUnit.MILLISECONDS.toNanos(settings.latencyMillis)));
+		}
+
+		private void fail(Status status) {
+			close();
+			responses.onError(status.asRuntimeException());
+		}
+
+		private synchronized void close() {
+			closed = true;
+			if (ticker != null) {
+				ticker.cancel(false);
+			}
+		}
+	}
+
+	private static class PendingResponse {
+		private final FetchResponse response;
+		private final long dueNanos;
+
+		private PendingResponse(FetchResponse response, long dueNanos) {
+			this.response = response;
+			this.dueNanos = dueNanos;
+		}
+	}
+
+	/**
+	 * Behavior of the fake server
+	 */
+	public static class Settings {
+		private final int eventsPerSecond;
+		private final long latencyMillis;
+		private final long resetAfterEvents;
+
+		private Settings(int eventsPerSecond, long latencyMillis, long resetAfterEvents) {
+			this.eventsPerSecond = eventsPerSecond;
+			this.latencyMillis = latencyMillis;
+			this.resetAfterEvents = resetAfterEvents;
+		}
+
+		/**
+		 * @return settings of a server that sends events as fast as credits allow, without delay or resets
+		 */
+		public static Settings defaults() {
+			return new Settings(0, 0, 0);
+		}
+
+		/**
+		 * @param eventsPerSecond maximum rate of each subscribe stream, zero or less for no limit
+		 * @return new settings
+		 */
+		public Settings withEventsPerSecond(int eventsPerSecond) {
+			return new Settings(eventsPerSecond, latencyMillis, resetAfterEvents);
+		}
+
+		/**
+		 * @param latencyMillis delay before each fetch and publish response is sent
+		 * @return new settings
+		 */
+		public Settings withLatencyMillis(long latencyMillis) {
+			return new Settings(eventsPerSecond, Math.max(0, latencyMillis), resetAfterEvents);
+		}
+
+		/**
+		 * @param resetAfterEvents number of events after which subscribe streams fail with UNAVAILABLE, zero or
+		 *                         less to never reset streams
+		 * @return new settings
+		 */
+		public Settings withResetAfterEvents(long resetAfterEvents) {
+			return new Settings(eventsPerSecond, latencyMillis, resetAfterEvents);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.salesforce.demo.fake;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.avro.Schema;
+import org.salesforce.demo.EventPublisher;
+import org.salesforce.demo.PubSubApiClient;
+import org.salesforce.demo.events.ReplayId;
+import org.salesforce.demo.metrics.LoggingMetricsExporter;
+import org.salesforce.demo.utils.Config;
+
+import io.grpc.ManagedChannel;
+
+/**
+ * Runs the client against a {@link FakePubSubServer}: subscribes to a number of topics and publishes events for a
+ * given duration, while the client logs its metrics.
+ * <p>
+ * Usage: {@code LoadTest [seconds] [topicCount] [eventsPerSecond] [latencyMillis] [resetAfterEvents]}, see
+ * {@link FakePubSubService.Settings} for the meaning of the last three arguments.
+ */
+public class LoadTest {
+	private static final Logger logger = Logger.getLogger(LoadTest.class.getName());
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		int topicCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		FakePubSubService.Settings settings = FakePubSubService.Settings.defaults()
+				.withEventsPerSecond(args.length > 2 ? Integer.parseInt(args[2]) : 0)
+				.withLatencyMillis(args.length > 3 ? Long.parseLong(args[3]) : 0)
+				.withResetAfterEvents(args.length > 4 ? Long.parseLong(args[4]) : 0);
+
+		try (FakePubSubServer server = FakePubSubServer.start("fake-pubsub", settings)) {
+			Schema schema = FakePubSubServer.loadFixtureSchema("AccountChangeEvent");
+			List<String> topicNames = new ArrayList<>();
+			for (int i = 0; i < topicCount; i++) {
+				String topicName = "/data/Load" + i + "__ChangeEvent";
+				server.getService().addTopic(topicName, schema);
+				topicNames.add(topicName);
+			}
+
+			Config config = Config.load(buildProperties(topicNames));
+			List<ManagedChannel> channels = new ArrayList<>();
+			for (int i = 0; i < Math.max(1, config.getChannelPoolSize()); i++) {
+				channels.add(server.newChannel());
+			}
+			PubSubApiClient client = new PubSubApiClient();
+			client.connect(config, channels);
+			try {
+				AtomicLong received = new AtomicLong();
+				for (String topicName : topicNames) {
+					client.subscribe(topicName, 0, (topic, event) -> received.incrementAndGet());
+				}
+				long published = publish(client, topicNames.get(0), schema, TimeUnit.SECONDS.toNanos(seconds));
+				logger.info("Load test over: received " + received.get() + " events and published " + published
+						+ " events in " + seconds + " s");
+				client.getMetrics().export(new LoggingMetricsExporter());
+			} finally {
+				client.disconnect();
+			}
+		} catch (Exception e) {
+			logger.log(Level.SEVERE, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Publishes events until the duration elapsed
+	 *
+	 * @return number of acknowledged events
+	 */
+	private static long publish(PubSubApiClient client, String topicName, Schema schema, long durationNanos)
+			throws Exception {
+		EventPublisher publisher = client.createPublisher(topicName);
+		FakeEventGenerator generator = new FakeEventGenerator(schema);
+		AtomicLong acknowledged = new AtomicLong();
+		long deadline = System.nanoTime() + durationNanos;
+		for (long i = 1; System.nanoTime() < deadline; i++) {
+			publisher.publish(generator.generateRecord(i)).thenAccept(replayId -> {
+				if (ReplayId.isNumeric(replayId)) {
+					acknowledged.incrementAndGet();
+				}
+			});
+		}
+		publisher.close(10, TimeUnit.SECONDS);
+		return acknowledged.get();
+	}
+
+	private static Properties buildProperties(List<String> topicNames) {
+		Properties prop = new Properties();
+		// Login properties are mandatory but unused when connecting over existing channels
+		prop.setProperty("loginUrl", "https://login.invalid");
+		prop.setProperty("user.username", "load-test");
+		prop.setProperty("user.password", "unused");
+		prop.setProperty("user.token", "unused");
+		prop.setProperty("pubSub.endpoint", "in-process");
+		prop.setProperty("pubSub.topicName", String.join(",", topicNames));
+		prop.setProperty("pubSub.eventReceiveLimit", "0");
+		prop.setProperty("pubSub.channelPoolSize", "2");
+		prop.setProperty("pubSub.replayPreset", "EARLIEST");
+		prop.setProperty("pubSub.metrics.exportIntervalSeconds", "5");
+		return prop;
+	}
+}
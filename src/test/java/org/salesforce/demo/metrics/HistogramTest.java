@@ -0,0 +1,108 @@
+package org.salesforce.demo.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+	private final Histogram histogram = new Histogram();
+
+	@Test
+	public void smallValuesHaveTheirOwnBucket() {
+		for (int value = 0; value < 64; value++) {
+			assertEquals(value, Histogram.bucketIndex(value));
+			assertEquals(value, Histogram.bucketUpperBound(value));
+		}
+		// From 64 on, buckets are two values wide
+		assertEquals(64, Histogram.bucketIndex(65));
+		assertEquals(65, Histogram.bucketIndex(66));
+	}
+
+	@Test
+	public void splitsEachPowerOfTwoInThirtyTwoBuckets() {
+		for (int power = 5; power < 63; power++) {
+			int first = Histogram.bucketIndex(1L << power);
+			assertEquals(32 + (power - 5) * 32, first);
+			assertEquals(first + 31, Histogram.bucketIndex((1L << (power + 1)) - 1));
+		}
+	}
+
+	@Test
+	public void upperBoundIsWithinRelativeError() {
+		for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 7) {
+			int index = Histogram.bucketIndex(value);
+			long upperBound = Histogram.bucketUpperBound(index);
+			assertTrue(upperBound >= value);
+			assertTrue("bucket of " + value + " ends at " + upperBound, upperBound - value <= value / 32);
+			assertEquals(index, Histogram.bucketIndex(upperBound));
+			assertEquals(index + 1, Histogram.bucketIndex(upperBound + 1));
+		}
+	}
+
+	@Test
+	public void recordsValuesNearLongMaxValue() {
+		assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, Histogram.bucketUpperBound(Histogram.BUCKET_COUNT - 1));
+		assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex(Long.MAX_VALUE - (1L << 56)));
+
+		histogram.record(Long.MAX_VALUE);
+		histogram.record(Long.MAX_VALUE - 1);
+		HistogramSnapshot snapshot = histogram.snapshotAndReset();
+		assertEquals(2, snapshot.getCount());
+		assertEquals(Long.MAX_VALUE, snapshot.getMax());
+		assertEquals(Long.MAX_VALUE, snapshot.getPercentile(50));
+	}
+
+	@Test
+	public void computesPercentiles() {
+		for (int value = 1; value <= 100; value++) {
+			histogram.record(value);
+		}
+		HistogramSnapshot snapshot = histogram.snapshotAndReset();
+		assertEquals(100, snapshot.getCount());
+		assertEquals(50.5, snapshot.getMean(), 0.001);
+		assertEquals(1, snapshot.getPercentile(0));
+		assertEquals(50, snapshot.getPercentile(50));
+		assertEquals(99, snapshot.getPercentile(99));
+		// Capped at the largest recorded value rather than the end of its bucket
+		assertEquals(100, snapshot.getPercentile(100));
+	}
+
+	@Test
+	public void percentilesOfLargeValuesAreWithinRelativeError() {
+		histogram.record(1_000_000);
+		histogram.record(2_000_000);
+		long median = histogram.snapshotAndReset().getPercentile(50);
+		assertTrue(median >= 1_000_000);
+		assertTrue(median <= 1_000_000 + 1_000_000 / 32);
+	}
+
+	@Test
+	public void recordsNegativeValuesAsZero() {
+		histogram.record(-5);
+		HistogramSnapshot snapshot = histogram.snapshotAndReset();
+		assertEquals(1, snapshot.getCount());
+		assertEquals(0, snapshot.getMax());
+		assertEquals(0, snapshot.getPercentile(100));
+	}
+
+	@Test
+	public void snapshotResetsTheHistogram() {
+		histogram.record(10);
+		histogram.record(1000);
+		HistogramSnapshot first = histogram.snapshotAndReset();
+		assertEquals(2, first.getCount());
+		assertEquals(1000, first.getMax());
+		assertEquals(505, first.getMean(), 0.001);
+
+		HistogramSnapshot second = histogram.snapshotAndReset();
+		assertEquals(0, second.getCount());
+		assertEquals(0, second.getMax());
+		assertEquals(0, second.getMean(), 0);
+		assertEquals(0, second.getPercentile(99));
+
+		histogram.record(7);
+		assertEquals(7, histogram.snapshotAndReset().getPercentile(50));
+	}
+}